@@ -16,10 +16,16 @@
 package org.springframework.web.servlet.view.mustache;
 
 import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.PatternMatchUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.ViewResolver;
 import org.springframework.web.servlet.view.AbstractTemplateViewResolver;
 import org.springframework.web.servlet.view.AbstractUrlBasedView;
@@ -53,23 +59,133 @@ import com.github.mustachejava.Mustache;
  * @author kpacha <kpacha666@gmail.com>
  */
 public abstract class AbstractMustacheViewResolver extends
-	AbstractTemplateViewResolver implements ViewResolver, InitializingBean {
+	AbstractTemplateViewResolver implements ViewResolver, InitializingBean,
+	DisposableBean {
 
     private MustacheTemplateLoader templateLoader;
 
     private String[] excludedViewNames = null;
 
+    private boolean precompileTemplates = false;
+
+    private int precompileThreads = Runtime.getRuntime().availableProcessors();
+
+    private boolean warmUpTemplates = false;
+
+    private int bufferSize = 0;
+
+    private int flushThreshold = 0;
+
+    private String flushKey = null;
+
+    private boolean preEncodeText = false;
+
+    private boolean bufferOutput = false;
+
+    private boolean generateEtag = false;
+
+    private Properties etagAttributes = null;
+
+    private boolean compress = false;
+
+    private int compressionLevel = 6;
+
+    private int compressionMinSize = 256;
+
+    private PageCache pageCache = null;
+
+    private Properties pageCacheAttributes = null;
+
+    private long pageCacheTtl = 60000;
+
+    private boolean prefetchDeferredValues = false;
+
+    private Properties deferredAttributes = null;
+
+    private int deferredThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    private ExecutorService deferredExecutor = null;
+
+    /** True if the deferred executor was created, not set, by this resolver. */
+    private boolean ownsDeferredExecutor = false;
+
+    private long deferredTimeout = 0;
+
+    private Object deferredFallback = null;
+
+    private boolean asyncWrite = false;
+
+    private long asyncWriteTimeout = 0;
+
+    private boolean lazyModel = false;
+
     @Override
     protected AbstractUrlBasedView buildView(String viewName) throws Exception {
 
 	final MustacheView view = (MustacheView) super.buildView(viewName);
 
-	Mustache template = templateLoader.compile(getRealUrl(view.getUrl()));
+	String templateName = getRealUrl(view.getUrl());
+	Mustache template = templateLoader.compile(templateName);
 	view.setTemplate(template);
+	view.setBufferSize(bufferSize);
+	view.setFlushThreshold(flushThreshold);
+	view.setFlushKey(flushKey);
+	view.setPreEncodeText(preEncodeText);
+	view.setBufferOutput(bufferOutput);
+	view.setGenerateEtag(generateEtag);
+	String[] viewEtagAttributes = getAttributes(etagAttributes, viewName);
+	view.setEtagAttributes(viewEtagAttributes);
+	if (viewEtagAttributes != null) {
+	    view.setTemplateLastModified(templateLoader
+		    .getLastModified(templateName));
+	}
+	view.setCompress(compress);
+	view.setCompressionLevel(compressionLevel);
+	view.setCompressionMinSize(compressionMinSize);
+	view.setPageCache(pageCache);
+	view.setPageCacheAttributes(getAttributes(pageCacheAttributes, viewName));
+	view.setPageCacheTtl(pageCacheTtl);
+	view.setPrefetchDeferredValues(prefetchDeferredValues);
+	if (prefetchDeferredValues) {
+	    view.setExecutorService(getDeferredExecutor());
+	}
+	view.setDeferredAttributes(getAttributes(deferredAttributes, viewName));
+	view.setDeferredTimeout(deferredTimeout);
+	view.setDeferredFallback(deferredFallback);
+	view.setAsyncWrite(asyncWrite);
+	view.setAsyncWriteTimeout(asyncWriteTimeout);
+	view.setLazyModel(lazyModel);
 
 	return view;
     }
 
+    /**
+     * Properties have no order, so the view name itself wins, then the most
+     * specific (longest) pattern matching it, e.g. 'product*' over '*'.
+     * 
+     * @return the attributes of the pattern matching the view name, or null
+     */
+    static String[] getAttributes(Properties attributes, String viewName) {
+	if (attributes == null) {
+	    return null;
+	}
+	String match = attributes.getProperty(viewName) != null ? viewName : null;
+	if (match == null) {
+	    for (String pattern : attributes.stringPropertyNames()) {
+		if (PatternMatchUtils.simpleMatch(pattern, viewName)
+			&& (match == null || pattern.length() > match.length() || (pattern
+				.length() == match.length() && pattern.compareTo(match) < 0))) {
+		    match = pattern;
+		}
+	    }
+	}
+	if (match == null) {
+	    return null;
+	}
+	return StringUtils.commaDelimitedListToStringArray(attributes
+		.getProperty(match));
+    }
+
     protected String getRealUrl(String url) {
 	return url;
     }
@@ -77,10 +193,27 @@ public abstract class AbstractMustacheViewResolver extends
     /**
      * Forward the configuration onward so that the template loader knows the
      * prefix used by the view resolver to lookup templates in the classpath.
+     * 
+     * If enabled, all the templates below the prefix with the configured
+     * suffix are compiled (and warmed up) before the first request.
      */
     @Override
     public void afterPropertiesSet() throws Exception {
 	templateLoader.setPrefix(this.getPrefix());
+	if (compress && (flushThreshold > 0 || flushKey != null)
+		&& !bufferOutput && !generateEtag) {
+	    logger.warn("Streamed pages are not compressed when "
+		    + "'flushThreshold' or 'flushKey' is set");
+	}
+	if (precompileTemplates) {
+	    TemplatePrecompiler precompiler = new TemplatePrecompiler(
+		    templateLoader);
+	    precompiler.setThreads(precompileThreads);
+	    precompiler.setWarmUp(warmUpTemplates);
+	    TemplatePrecompiler.Result result = precompiler
+		    .precompile(getSuffix());
+	    logger.info(result);
+	}
     }
 
     @Required
@@ -88,6 +221,10 @@ public abstract class AbstractMustacheViewResolver extends
 	this.templateLoader = templateLoader;
     }
 
+    protected MustacheTemplateLoader getTemplateLoader() {
+	return templateLoader;
+    }
+
     /**
      * Indicates whether or not this
      * {@link org.springframework.web.servlet.ViewResolver} can handle the
@@ -112,6 +249,273 @@ public abstract class AbstractMustacheViewResolver extends
 	return super.canHandle(viewName, locale) && !isExcluded;
     }
 
+    /**
+     * @param precompileTemplates
+     *            if true, compile all the templates when the resolver is
+     *            initialized instead of on their first request
+     */
+    public void setPrecompileTemplates(boolean precompileTemplates) {
+	this.precompileTemplates = precompileTemplates;
+    }
+
+    /**
+     * @param precompileThreads
+     *            the number of threads used to precompile the templates, the
+     *            default is the number of available processors
+     */
+    public void setPrecompileThreads(int precompileThreads) {
+	this.precompileThreads = precompileThreads;
+    }
+
+    /**
+     * @param warmUpTemplates
+     *            if true, render each precompiled template once with an empty
+     *            model
+     */
+    public void setWarmUpTemplates(boolean warmUpTemplates) {
+	this.warmUpTemplates = warmUpTemplates;
+    }
+
+    /**
+     * @param bufferSize
+     *            the response buffer size of the views, see
+     *            {@link MustacheView#setBufferSize(int)}
+     */
+    public void setBufferSize(int bufferSize) {
+	this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param flushThreshold
+     *            see {@link MustacheView#setFlushThreshold(int)}
+     */
+    public void setFlushThreshold(int flushThreshold) {
+	this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * @param flushKey
+     *            see {@link MustacheView#setFlushKey(String)}
+     */
+    public void setFlushKey(String flushKey) {
+	this.flushKey = flushKey;
+    }
+
+    /**
+     * @param preEncodeText
+     *            see {@link MustacheView#setPreEncodeText(boolean)}
+     */
+    public void setPreEncodeText(boolean preEncodeText) {
+	this.preEncodeText = preEncodeText;
+    }
+
+    /**
+     * @param bufferOutput
+     *            see {@link MustacheView#setBufferOutput(boolean)}
+     */
+    public void setBufferOutput(boolean bufferOutput) {
+	this.bufferOutput = bufferOutput;
+    }
+
+    /**
+     * @param generateEtag
+     *            see {@link MustacheView#setGenerateEtag(boolean)}
+     */
+    public void setGenerateEtag(boolean generateEtag) {
+	this.generateEtag = generateEtag;
+    }
+
+    /**
+     * @param etagAttributes
+     *            view name patterns mapped to the comma separated model
+     *            attributes the ETag of the matching views is computed from,
+     *            the view name itself or else the longest matching pattern
+     *            wins, see {@link MustacheView#setEtagAttributes(String[])}
+     * 
+     *            <pre>
+     * e.g.
+     *   &lt;property name="etagAttributes"&gt;
+     *       &lt;props&gt;
+     *           &lt;prop key="product*"&gt;productId,version&lt;/prop&gt;
+     *       &lt;/props&gt;
+     *   &lt;/property&gt;
+     * </pre>
+     */
+    public void setEtagAttributes(Properties etagAttributes) {
+	this.etagAttributes = etagAttributes;
+    }
+
+    /**
+     * @param compress
+     *            see {@link MustacheView#setCompress(boolean)}
+     */
+    public void setCompress(boolean compress) {
+	this.compress = compress;
+    }
+
+    /**
+     * @param compressionLevel
+     *            see {@link MustacheView#setCompressionLevel(int)}
+     */
+    public void setCompressionLevel(int compressionLevel) {
+	this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param compressionMinSize
+     *            see {@link MustacheView#setCompressionMinSize(int)}
+     */
+    public void setCompressionMinSize(int compressionMinSize) {
+	this.compressionMinSize = compressionMinSize;
+    }
+
+    /**
+     * @param pageCache
+     *            see {@link MustacheView#setPageCache(PageCache)}
+     */
+    public void setPageCache(PageCache pageCache) {
+	this.pageCache = pageCache;
+    }
+
+    /**
+     * @param pageCacheAttributes
+     *            view name patterns mapped to the comma separated model
+     *            attributes the cached pages of the matching views are keyed
+     *            by, empty to key them by view name and locale only. The view
+     *            name itself or else the longest matching pattern wins, see
+     *            {@link MustacheView#setPageCacheAttributes(String[])}
+     * 
+     *            <pre>
+     * e.g.
+     *   &lt;property name="pageCache" ref="pageCache" /&gt;
+     *   &lt;property name="pageCacheAttributes"&gt;
+     *       &lt;props&gt;
+     *           &lt;prop key="home"&gt;&lt;/prop&gt;
+     *           &lt;prop key="product*"&gt;productId&lt;/prop&gt;
+     *       &lt;/props&gt;
+     *   &lt;/property&gt;
+     * </pre>
+     */
+    public void setPageCacheAttributes(Properties pageCacheAttributes) {
+	this.pageCacheAttributes = pageCacheAttributes;
+    }
+
+    /**
+     * @param pageCacheTtl
+     *            see {@link MustacheView#setPageCacheTtl(long)}
+     */
+    public void setPageCacheTtl(long pageCacheTtl) {
+	this.pageCacheTtl = pageCacheTtl;
+    }
+
+    /**
+     * @param prefetchDeferredValues
+     *            see {@link MustacheView#setPrefetchDeferredValues(boolean)},
+     *            the values are started on the deferred executor, not on the
+     *            evaluation threads of the template loader which wait for
+     *            them
+     */
+    public void setPrefetchDeferredValues(boolean prefetchDeferredValues) {
+	this.prefetchDeferredValues = prefetchDeferredValues;
+    }
+
+    /**
+     * @param deferredAttributes
+     *            view name patterns mapped to the comma separated model
+     *            attributes started when the matching views begin rendering,
+     *            like the ETag attributes, see
+     *            {@link MustacheView#setDeferredAttributes(String[])}
+     */
+    public void setDeferredAttributes(Properties deferredAttributes) {
+	this.deferredAttributes = deferredAttributes;
+    }
+
+    /**
+     * @param deferredThreads
+     *            the number of threads of the deferred executor created by
+     *            this resolver. The default is twice the number of
+     *            processors.
+     */
+    public void setDeferredThreads(int deferredThreads) {
+	this.deferredThreads = deferredThreads;
+    }
+
+    /**
+     * @param deferredExecutor
+     *            the executor service the deferred values are started on,
+     *            shared and left running when this resolver is destroyed
+     */
+    public synchronized void setDeferredExecutor(
+	    ExecutorService deferredExecutor) {
+	this.deferredExecutor = deferredExecutor;
+	this.ownsDeferredExecutor = false;
+    }
+
+    /**
+     * @return the executor service the deferred values are started on
+     */
+    public synchronized ExecutorService getDeferredExecutor() {
+	if (deferredExecutor == null) {
+	    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+		    "mustache-deferred-");
+	    threadFactory.setDaemon(true);
+	    deferredExecutor = Executors.newFixedThreadPool(deferredThreads,
+		    threadFactory);
+	    ownsDeferredExecutor = true;
+	}
+	return deferredExecutor;
+    }
+
+    /**
+     * Shut down the deferred executor created by this resolver.
+     */
+    public synchronized void destroy() {
+	if (deferredExecutor != null && ownsDeferredExecutor) {
+	    deferredExecutor.shutdown();
+	}
+    }
+
+    /**
+     * @param deferredTimeout
+     *            see {@link MustacheView#setDeferredTimeout(long)}
+     */
+    public void setDeferredTimeout(long deferredTimeout) {
+	this.deferredTimeout = deferredTimeout;
+    }
+
+    /**
+     * @param deferredFallback
+     *            see {@link MustacheView#setDeferredFallback(Object)}
+     */
+    public void setDeferredFallback(Object deferredFallback) {
+	this.deferredFallback = deferredFallback;
+    }
+
+    /**
+     * @param asyncWrite
+     *            see {@link MustacheView#setAsyncWrite(boolean)}, only
+     *            buffered pages ('bufferOutput') are written asynchronously
+     */
+    public void setAsyncWrite(boolean asyncWrite) {
+	this.asyncWrite = asyncWrite;
+    }
+
+    /**
+     * @param asyncWriteTimeout
+     *            see {@link MustacheView#setAsyncWriteTimeout(long)}
+     */
+    public void setAsyncWriteTimeout(long asyncWriteTimeout) {
+	this.asyncWriteTimeout = asyncWriteTimeout;
+    }
+
+    /**
+     * @param lazyModel
+     *            see {@link MustacheView#setLazyModel(boolean)}
+     */
+    public void setLazyModel(boolean lazyModel) {
+	this.lazyModel = lazyModel;
+    }
+
     /**
      * @return the excludedViewNames
      */
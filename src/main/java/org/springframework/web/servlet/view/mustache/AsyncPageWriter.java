@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes a rendered page with non-blocking I/O, whenever the container
+ * reports that the output stream is ready, and completes the asynchronous
+ * request once the whole page is written.
+ * 
+ * Only loaded on Servlet 3.1 containers, see {@link MustacheView}.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class AsyncPageWriter implements WriteListener {
+
+    private static final Log logger = LogFactory.getLog(AsyncPageWriter.class);
+
+    /** The most written at once, so a slow client does not buffer the page. */
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream out;
+    private final byte[] page;
+    private int offset = 0;
+    private boolean completed = false;
+
+    AsyncPageWriter(AsyncContext asyncContext, ServletOutputStream out,
+            byte[] page) {
+        this.asyncContext = asyncContext;
+        this.out = out;
+        this.page = page;
+    }
+
+    /**
+     * Put the request in asynchronous mode and write the page from the
+     * container's threads.
+     * 
+     * @param timeout
+     *            the number of milliseconds the write may take, 0 for the
+     *            container's timeout
+     */
+    static void start(HttpServletRequest request, ServletOutputStream out,
+            byte[] page, long timeout) {
+        AsyncContext asyncContext = request.startAsync();
+        if (timeout > 0) {
+            asyncContext.setTimeout(timeout);
+        }
+        out.setWriteListener(new AsyncPageWriter(asyncContext, out, page));
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (offset < page.length && out.isReady()) {
+            int length = Math.min(CHUNK_SIZE, page.length - offset);
+            out.write(page, offset, length);
+            offset += length;
+        }
+        if (offset == page.length && !completed && out.isReady()) {
+            completed = true;
+            asyncContext.complete();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.debug("Failed to write the page asynchronously", t);
+        asyncContext.complete();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * A {@link TemplateCache} bounded by the number of templates or their
+ * estimated size (see {@link CachedTemplate#getSize()}).
+ * 
+ * When the bound is exceeded the least recently used templates are evicted.
+ * Evicted templates are compiled again on their next request.
+ * 
+ * <pre>
+ * e.g.
+ *   &lt;bean class="org.springframework.web.servlet.view.mustache.MustacheTemplateLoader"&gt;
+ *       &lt;property name="templateCache"&gt;
+ *           &lt;bean class="org.springframework.web.servlet.view.mustache.BoundedTemplateCache"&gt;
+ *               &lt;property name="maxEntries" value="500" /&gt;
+ *           &lt;/bean&gt;
+ *       &lt;/property&gt;
+ *   &lt;/bean&gt;
+ * </pre>
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class BoundedTemplateCache implements TemplateCache {
+
+    private int maxEntries = 1000;
+    private long maxSize = 0;
+
+    private volatile Cache<String, CachedTemplate> templates = build();
+
+    private volatile EvictionListener evictionListener = null;
+
+    /**
+     * @param maxEntries
+     *            the maximum number of cached templates, 0 for no limit. The
+     *            default is 1000. Ignored if a maximum size is set.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        rebuild();
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum estimated size, in characters, of all the cached
+     *            templates, 0 for no limit. The default is 0.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        rebuild();
+    }
+
+    @Override
+    public CachedTemplate get(String name) {
+        return templates.getIfPresent(name);
+    }
+
+    @Override
+    public void put(String name, CachedTemplate template) {
+        templates.put(name, template);
+    }
+
+    @Override
+    public void remove(String name) {
+        templates.invalidate(name);
+    }
+
+    @Override
+    public void clear() {
+        templates.invalidateAll();
+    }
+
+    @Override
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * A single segment, so that the bound applies to the whole cache rather
+     * than to each segment, the lookups take no lock anyway.
+     */
+    private Cache<String, CachedTemplate> build() {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .concurrencyLevel(1);
+        if (maxSize > 0) {
+            builder.maximumWeight(maxSize).weigher(
+                    new Weigher<String, CachedTemplate>() {
+                        @Override
+                        public int weigh(String name, CachedTemplate template) {
+                            return (int) Math.min(template.getSize(),
+                                    Integer.MAX_VALUE);
+                        }
+                    });
+        } else if (maxEntries > 0) {
+            builder.maximumSize(maxEntries);
+        }
+        return builder.removalListener(
+                new RemovalListener<String, CachedTemplate>() {
+                    @Override
+                    public void onRemoval(
+                            RemovalNotification<String, CachedTemplate> notification) {
+                        EvictionListener listener = evictionListener;
+                        if (listener != null && notification.wasEvicted()) {
+                            listener.evicted(notification.getKey());
+                        }
+                    }
+                }).build();
+    }
+
+    /**
+     * Apply new bounds, keeping the cached templates that fit.
+     */
+    private void rebuild() {
+        Cache<String, CachedTemplate> previous = templates;
+        templates = build();
+        templates.asMap().putAll(previous.asMap());
+    }
+
+    public int getEntryCount() {
+        return (int) templates.size();
+    }
+
+    /**
+     * @return the estimated size, in characters, of all the cached templates
+     */
+    public long getSize() {
+        long size = 0;
+        for (CachedTemplate template : templates.asMap().values()) {
+            size += template.getSize();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return templates.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return templates.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return templates.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedTemplateCache [entries=" + getEntryCount() + ", size="
+                + getSize() + ", hits=" + getHitCount() + ", misses="
+                + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+}
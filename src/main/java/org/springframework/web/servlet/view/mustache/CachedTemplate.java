@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.mustachejava.Mustache;
+
+/**
+ * A compiled template held by the {@link MustacheTemplateLoader} together
+ * with every resource (the template itself and its partials) that was read to
+ * compile it and, when reloading templates, their last modified time.
+ *
+ * The sources are only recorded while the template is being compiled on a
+ * single thread, once it has been published to the cache it is read-only.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class CachedTemplate {
+
+    private final String name;
+    private final Map<String, Long> sources = new LinkedHashMap<String, Long>();
+    private Mustache mustache;
+    private long size = 0;
+    private volatile long lastChecked = System.currentTimeMillis();
+
+    CachedTemplate(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Mustache getMustache() {
+        return mustache;
+    }
+
+    void setMustache(Mustache mustache) {
+        this.mustache = mustache;
+    }
+
+    void addSource(String resourceName, long lastModified) {
+        if (!sources.containsKey(resourceName)) {
+            sources.put(resourceName, lastModified);
+        }
+    }
+
+    void addSources(CachedTemplate template) {
+        for (Map.Entry<String, Long> source : template.sources.entrySet()) {
+            addSource(source.getKey(), source.getValue());
+        }
+        size += template.size;
+    }
+
+    /**
+     * @return the number of characters read to compile this template and its
+     *         partials, an estimate of the size of the compiled template
+     */
+    public long getSize() {
+        return size;
+    }
+
+    void addSize(long characters) {
+        size += characters;
+    }
+
+    /**
+     * @return the resource names read to compile this template mapped to their
+     *         last modified time at that moment, or -1 when not reloading
+     */
+    public Map<String, Long> getSources() {
+        return Collections.unmodifiableMap(sources);
+    }
+
+    /**
+     * @return the latest last modified time of the template and its
+     *         partials, or -1 when not reloading
+     */
+    public long getLastModified() {
+        long lastModified = -1;
+        for (Long sourceLastModified : sources.values()) {
+            if (sourceLastModified < 0) {
+                return -1;
+            }
+            lastModified = Math.max(lastModified, sourceLastModified);
+        }
+        return lastModified;
+    }
+
+    long getLastChecked() {
+        return lastChecked;
+    }
+
+    void setLastChecked(long lastChecked) {
+        this.lastChecked = lastChecked;
+    }
+}
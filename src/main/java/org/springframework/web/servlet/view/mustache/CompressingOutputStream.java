@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses to the 'gzip' or 'deflate' content encoding with a deflater
+ * borrowed from a {@link DeflaterPool}.
+ * 
+ * Once done call {@link #finish()} and then {@link #release()} to return the
+ * deflater, closing this stream is not required.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class CompressingOutputStream extends DeflaterOutputStream {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0,
+            0, 0, 0, 0, 0 };
+
+    private final DeflaterPool pool;
+    private final boolean gzip;
+    private final CRC32 crc = new CRC32();
+    private long length = 0;
+    private boolean finished = false;
+    private boolean released = false;
+
+    /**
+     * @param contentEncoding
+     *            {@link #GZIP} or {@link #DEFLATE}
+     */
+    CompressingOutputStream(OutputStream out, DeflaterPool pool,
+            String contentEncoding) throws IOException {
+        this(out, pool, GZIP.equals(contentEncoding));
+    }
+
+    private CompressingOutputStream(OutputStream out, DeflaterPool pool,
+            boolean gzip) throws IOException {
+        super(out, pool.acquire(gzip), 8192);
+        this.pool = pool;
+        this.gzip = gzip;
+        if (gzip) {
+            out.write(GZIP_HEADER);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        super.write(bytes, offset, length);
+        crc.update(bytes, offset, length);
+        this.length += length;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        super.finish();
+        if (gzip) {
+            writeInt((int) crc.getValue());
+            writeInt((int) length);
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    /**
+     * Return the deflater to the pool, the stream can not be used anymore.
+     */
+    void release() {
+        if (!released) {
+            released = true;
+            pool.release(def, gzip);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The default, unbounded {@link TemplateCache}, it never evicts a template.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class ConcurrentTemplateCache implements TemplateCache {
+
+    private final ConcurrentMap<String, CachedTemplate> templates = new ConcurrentHashMap<String, CachedTemplate>();
+
+    @Override
+    public CachedTemplate get(String name) {
+        return templates.get(name);
+    }
+
+    @Override
+    public void put(String name, CachedTemplate template) {
+        templates.put(name, template);
+    }
+
+    @Override
+    public void remove(String name) {
+        templates.remove(name);
+    }
+
+    @Override
+    public void clear() {
+        templates.clear();
+    }
+
+    @Override
+    public void setEvictionListener(EvictionListener evictionListener) {
+        // nothing is ever evicted
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * Negotiates the compression of a response from its Accept-Encoding header.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class ContentEncodings {
+
+    /**
+     * @param acceptEncoding
+     *            the Accept-Encoding header of the request, may be null
+     * @return gzip if accepted, otherwise deflate if accepted, otherwise null
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String coding : StringUtils
+                .commaDelimitedListToStringArray(acceptEncoding)) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            if (!isAccepted(parts)) {
+                continue;
+            }
+            if (name.equals(CompressingOutputStream.GZIP)
+                    || name.equals("x-gzip")) {
+                return CompressingOutputStream.GZIP;
+            }
+            if (name.equals(CompressingOutputStream.DEFLATE)) {
+                deflate = true;
+            }
+        }
+        return deflate ? CompressingOutputStream.DEFLATE : null;
+    }
+
+    /**
+     * @return false if the coding has a quality of 0
+     */
+    private static boolean isAccepted(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of {@link Deflater}s of one compression level, so compressing a
+ * response does not allocate (and later release) the native deflater state.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class DeflaterPool {
+
+    private final int level;
+    private final int maxIdle;
+    private final Queue<Deflater> gzipDeflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final Queue<Deflater> zlibDeflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicInteger idle = new AtomicInteger();
+
+    /**
+     * @param level
+     *            the compression level, 1 (fastest) to 9 (best)
+     * @param maxIdle
+     *            the maximum number of deflaters kept for reuse
+     */
+    DeflaterPool(int level, int maxIdle) {
+        this.level = level;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @param gzip
+     *            true for a raw deflater wrapped in the gzip format, false for
+     *            the zlib format of the 'deflate' content encoding
+     */
+    Deflater acquire(boolean gzip) {
+        Deflater deflater = (gzip ? gzipDeflaters : zlibDeflaters).poll();
+        if (deflater == null) {
+            return new Deflater(level, gzip);
+        }
+        idle.decrementAndGet();
+        return deflater;
+    }
+
+    void release(Deflater deflater, boolean gzip) {
+        if (idle.incrementAndGet() > maxIdle) {
+            idle.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        (gzip ? gzipDeflaters : zlibDeflaters).offer(deflater);
+    }
+}
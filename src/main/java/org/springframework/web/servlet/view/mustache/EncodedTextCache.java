@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The encoded static text of a view, see {@link PreEncodingWriter}.
+ *
+ * The static text of a compiled template is written as the very same string
+ * instances on every render, while dynamic values are new strings. Text is
+ * therefore looked up by identity, in one of two slots, and only cached once
+ * the same instance is written a second time: a dynamic value costs an
+ * identity hash and an int store, no lock and no allocation.
+ *
+ * The slots start at 'slots' and grow fourfold, up to 'maxSlots', while the
+ * lookups mostly miss, so a large template is not thrashing a table smaller
+ * than its static text. A template whose writes are mostly dynamic values
+ * grows the table to 'maxSlots'.
+ *
+ * Lookups take no lock, a slot is replaced as a whole and a lost race only
+ * means some text is encoded once more, or a hit or miss is not counted.
+ *
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class EncodedTextCache {
+
+    static final int DEFAULT_SLOTS = 512;
+
+    static final int DEFAULT_MAX_SLOTS = 16 * 1024;
+
+    private final int maxSlots;
+
+    private volatile Table table;
+
+    EncodedTextCache() {
+        this(DEFAULT_SLOTS, DEFAULT_MAX_SLOTS);
+    }
+
+    /**
+     * @param slots
+     *            the initial number of cached texts, rounded up to a power of
+     *            two
+     * @param maxSlots
+     *            the number of cached texts the cache grows to at most
+     */
+    EncodedTextCache(int slots, int maxSlots) {
+        this.table = new Table(powerOfTwo(slots));
+        this.maxSlots = Math.max(powerOfTwo(maxSlots), table.size);
+    }
+
+    /**
+     * @return the encoded bytes of this very string, or null if it is not
+     *         cached
+     */
+    byte[] get(String text) {
+        Table table = this.table;
+        int hash = System.identityHashCode(text);
+        Entry entry = table.entries.get(table.first(hash));
+        if (entry == null || entry.text != text) {
+            entry = table.entries.get(table.second(hash));
+        }
+        if (entry != null && entry.text == text) {
+            table.hits++;
+            return entry.bytes;
+        }
+        return null;
+    }
+
+    /**
+     * Record that the text was encoded, caching its bytes if the same string
+     * was already seen.
+     */
+    void encoded(String text, byte[] bytes) {
+        Table table = this.table;
+        int hash = System.identityHashCode(text);
+        int first = table.first(hash);
+        int second = table.second(hash);
+        if (table.seen[first] == hash || table.seen[second] == hash) {
+            table.put(hash, new Entry(text, bytes));
+        } else if (table.seen[first] == 0) {
+            table.seen[first] = hash;
+        } else {
+            // two texts seen in turn in the same slot must not keep
+            // forgetting each other
+            table.seen[second] = hash;
+        }
+        table.misses++;
+        if (table.misses > table.size && table.misses > table.hits
+                && table.size < maxSlots) {
+            grow(table);
+        }
+    }
+
+    /**
+     * @return the number of texts the cache can hold at the moment
+     */
+    int getSlots() {
+        return table.size;
+    }
+
+    /**
+     * Replace the table with one four times as large, keeping its entries.
+     */
+    private synchronized void grow(Table smaller) {
+        if (table != smaller) {
+            return;
+        }
+        Table larger = new Table(Math.min(smaller.size * 4, maxSlots));
+        for (int i = 0; i < smaller.size; i++) {
+            Entry entry = smaller.entries.get(i);
+            if (entry != null) {
+                larger.put(System.identityHashCode(entry.text), entry);
+            }
+        }
+        table = larger;
+    }
+
+    private static int powerOfTwo(int slots) {
+        int size = Integer.highestOneBit(Math.max(slots, 1) - 1) << 1;
+        return Math.max(size, 1);
+    }
+
+    private static class Table {
+
+        private final int size;
+        private final int mask;
+        private final AtomicReferenceArray<Entry> entries;
+
+        /** The identity hashes of the texts last seen once, in two slots. */
+        private final int[] seen;
+
+        /** Racy counters, only used to decide when to grow. */
+        private int hits;
+        private int misses;
+
+        Table(int size) {
+            this.size = size;
+            this.mask = size - 1;
+            this.entries = new AtomicReferenceArray<Entry>(size);
+            this.seen = new int[size];
+        }
+
+        int first(int hash) {
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        int second(int hash) {
+            return (hash * 0x9E3779B9 >>> 16 ^ hash) & mask;
+        }
+
+        /**
+         * Store the entry in its first free slot, or else replace the entry
+         * in one of its two slots.
+         */
+        void put(int hash, Entry entry) {
+            int first = first(hash);
+            if (entries.get(first) == null) {
+                entries.set(first, entry);
+                return;
+            }
+            int second = second(hash);
+            if (entries.get(second) == null || (hash & 1) == 0) {
+                entries.set(second, entry);
+            } else {
+                entries.set(first, entry);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final String text;
+        private final byte[] bytes;
+
+        Entry(String text, byte[] bytes) {
+            this.text = text;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * Generates strong ETags and evaluates conditional GET requests.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class EtagUtils {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported", e);
+        }
+    }
+
+    /**
+     * @return the quoted, hex encoded digest
+     */
+    static String toEtag(MessageDigest digest) {
+        return toEtag(digest.digest());
+    }
+
+    /**
+     * @return the quoted, hex encoded digest
+     */
+    static String toEtag(byte[] bytes) {
+        StringBuilder etag = new StringBuilder(bytes.length * 2 + 2);
+        etag.append('"');
+        for (byte b : bytes) {
+            etag.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * A strong ETag identifies the bytes sent, so each content encoding of a
+     * page has its own, e.g. "d41d8cd98f00b204e9800998ecf8427e-gzip".
+     * 
+     * @return the ETag of the page sent with the content encoding, or the
+     *         ETag itself if the page is sent as is (null)
+     */
+    static String withContentEncoding(String etag, String contentEncoding) {
+        if (contentEncoding == null) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + '-' + contentEncoding
+                + '"';
+    }
+
+    /**
+     * @return true if the request is a GET or HEAD with an If-None-Match
+     *         header matching the ETag
+     */
+    static boolean isNotModified(HttpServletRequest request, String etag) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : StringUtils
+                .commaDelimitedListToStringArray(ifNoneMatch)) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Flushes the underlying writer every time a number of characters have been
+ * written, so the client receives a large page while it is still rendering.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class FlushingWriter extends Writer {
+
+    private final Writer writer;
+    private final int flushThreshold;
+    private int unflushed = 0;
+
+    /**
+     * @param flushThreshold
+     *            the number of characters written between two flushes
+     */
+    FlushingWriter(Writer writer, int flushThreshold) {
+        this.writer = writer;
+        this.flushThreshold = flushThreshold;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        writer.write(buffer, offset, length);
+        written(length);
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        writer.write(string, offset, length);
+        written(length);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        writer.write(c);
+        written(1);
+    }
+
+    private void written(int length) throws IOException {
+        unflushed += length;
+        if (unflushed >= flushThreshold) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        unflushed = 0;
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
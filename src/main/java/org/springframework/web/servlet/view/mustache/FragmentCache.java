@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded, least recently used cache of rendered template sections, see
+ * {@link MustacheFragmentCacheInterceptor}. Each section expires after the
+ * time to live.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class FragmentCache {
+
+    private int maxEntries = 1000;
+    private long timeToLive = 60000;
+
+    private volatile Cache<String, String> fragments = build();
+
+    /**
+     * @param maxEntries
+     *            the maximum number of cached sections. The default is 1000.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        rebuild();
+    }
+
+    /**
+     * @param timeToLive
+     *            the number of milliseconds a rendered section is cached. The
+     *            default is 60000.
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+        rebuild();
+    }
+
+    /**
+     * @return the rendered section or null if it is not cached or expired
+     */
+    public String get(String key) {
+        return fragments.getIfPresent(key);
+    }
+
+    public void put(String key, String text) {
+        fragments.put(key, text);
+    }
+
+    public void clear() {
+        fragments.invalidateAll();
+    }
+
+    /**
+     * A single segment, so that the bound applies to the whole cache rather
+     * than to each segment, the lookups take no lock anyway.
+     */
+    private Cache<String, String> build() {
+        return CacheBuilder.newBuilder().concurrencyLevel(1)
+                .maximumSize(maxEntries)
+                .expireAfterWrite(timeToLive, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Apply the new bound and time to live to the cached sections.
+     */
+    private void rebuild() {
+        Cache<String, String> previous = fragments;
+        fragments = build();
+        fragments.asMap().putAll(previous.asMap());
+    }
+
+    public int getEntryCount() {
+        return (int) fragments.size();
+    }
+
+    public long getHitCount() {
+        return fragments.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return fragments.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return fragments.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentCache [entries=" + getEntryCount() + ", hits="
+                + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.Writer;
+
+import com.github.mustachejava.Iteration;
+import com.github.mustachejava.reflect.ReflectionObjectHandler;
+
+/**
+ * Renders the sections of a {@link MustacheFragmentCacheInterceptor} through
+ * its fragment cache: a cached section is written as is without running it,
+ * otherwise it is run once in the current scope, e.g. the item of an
+ * enclosing loop, and its output cached.
+ *
+ * {@link MustacheTemplateLoader} uses it, set it on any other
+ * DefaultMustacheFactory compiling templates with cached sections.
+ *
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class FragmentCacheObjectHandler extends ReflectionObjectHandler {
+
+    @Override
+    public Writer iterate(Iteration iteration, Writer writer, Object object,
+            Object[] scopes) {
+        if (object instanceof MustacheFragmentCacheInterceptor.CachedSection) {
+            return ((MustacheFragmentCacheInterceptor.CachedSection) object)
+                    .execute(iteration, writer, scopes);
+        }
+        return super.iterate(iteration, writer, object, scopes);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.springframework.web.servlet.support.RequestContext;
+
+/**
+ * The model of a {@link MustacheView} looked up on demand instead of merged
+ * into a new map: a value is searched for in the values put while rendering,
+ * the controller model, the path variables, the static attributes and,
+ * when exposed, the request and session attributes. The RequestContext is
+ * only created if the template looks it up.
+ * 
+ * The order is the precedence of AbstractView's merged model, except that a
+ * model attribute always overrides a request or session attribute.
+ * 
+ * Iterating over the scope merges it once, the template lookups do not.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class ModelScope extends AbstractMap<String, Object> {
+
+    private final Map<String, ?> model;
+    private final Map<String, ?> pathVariables;
+    private final Map<String, ?> staticAttributes;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final ServletContext servletContext;
+    private final boolean exposeRequestAttributes;
+    private final boolean exposeSessionAttributes;
+    private final Set<String> requestContextAttributes;
+
+    /** The values put while rendering, created on the first put. */
+    private Map<String, Object> values = null;
+    private RequestContext requestContext = null;
+    private Map<String, Object> merged = null;
+
+    /**
+     * @param requestContextAttributes
+     *            the names the RequestContext is exposed as
+     */
+    ModelScope(Map<String, ?> model, Map<String, ?> pathVariables,
+            Map<String, ?> staticAttributes, HttpServletRequest request,
+            HttpServletResponse response, ServletContext servletContext,
+            boolean exposeRequestAttributes, boolean exposeSessionAttributes,
+            Set<String> requestContextAttributes) {
+        this.model = model != null ? model : Collections.<String, Object> emptyMap();
+        this.pathVariables = pathVariables != null ? pathVariables : Collections.<String, Object> emptyMap();
+        this.staticAttributes = staticAttributes;
+        this.request = request;
+        this.response = response;
+        this.servletContext = servletContext;
+        this.exposeRequestAttributes = exposeRequestAttributes;
+        this.exposeSessionAttributes = exposeSessionAttributes;
+        this.requestContextAttributes = requestContextAttributes;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (values != null && values.containsKey(key)) {
+            return values.get(key);
+        }
+        if (model.containsKey(key)) {
+            return model.get(key);
+        }
+        if (pathVariables.containsKey(key)) {
+            return pathVariables.get(key);
+        }
+        if (staticAttributes.containsKey(key)) {
+            return staticAttributes.get(key);
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String name = (String) key;
+        if (exposeRequestAttributes) {
+            Object value = request.getAttribute(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (exposeSessionAttributes) {
+            HttpSession session = request.getSession(false);
+            if (session != null) {
+                Object value = session.getAttribute(name);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        if (requestContextAttributes.contains(name)) {
+            return getRequestContext();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (values != null && values.containsKey(key))
+                || model.containsKey(key) || pathVariables.containsKey(key)
+                || staticAttributes.containsKey(key) || get(key) != null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object previous = get(key);
+        if (values == null) {
+            values = new HashMap<String, Object>();
+        }
+        values.put(key, value);
+        if (merged != null) {
+            merged.put(key, value);
+        }
+        return previous;
+    }
+
+    /**
+     * @return the names of the controller model attributes, without merging
+     *         the scope
+     */
+    Set<String> getModelNames() {
+        return Collections.unmodifiableSet(model.keySet());
+    }
+
+    private RequestContext getRequestContext() {
+        if (requestContext == null) {
+            requestContext = new RequestContext(request, response,
+                    servletContext, this);
+        }
+        return requestContext;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (merged == null) {
+            merged = merge();
+        }
+        Set<Map.Entry<String, Object>> entries = new LinkedHashSet<Map.Entry<String, Object>>();
+        for (String name : merged.keySet()) {
+            entries.add(new ScopeEntry(name));
+        }
+        return Collections.unmodifiableSet(entries);
+    }
+
+    private Map<String, Object> merge() {
+        Map<String, Object> merged = new LinkedHashMap<String, Object>();
+        if (exposeSessionAttributes) {
+            HttpSession session = request.getSession(false);
+            if (session != null) {
+                for (Enumeration<?> names = session.getAttributeNames(); names
+                        .hasMoreElements();) {
+                    String name = (String) names.nextElement();
+                    merged.put(name, session.getAttribute(name));
+                }
+            }
+        }
+        if (exposeRequestAttributes) {
+            for (Enumeration<?> names = request.getAttributeNames(); names
+                    .hasMoreElements();) {
+                String name = (String) names.nextElement();
+                merged.put(name, request.getAttribute(name));
+            }
+        }
+        for (String name : requestContextAttributes) {
+            merged.put(name, getRequestContext());
+        }
+        merged.putAll(staticAttributes);
+        merged.putAll(pathVariables);
+        merged.putAll(model);
+        if (values != null) {
+            merged.putAll(values);
+        }
+        return merged;
+    }
+
+    /**
+     * An entry of the merged scope, setting its value puts it in the scope.
+     */
+    private class ScopeEntry implements Map.Entry<String, Object> {
+
+        private final String name;
+
+        ScopeEntry(String name) {
+            this.name = name;
+        }
+
+        public String getKey() {
+            return name;
+        }
+
+        public Object getValue() {
+            return merged.get(name);
+        }
+
+        public Object setValue(Object value) {
+            return put(name, value);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            Object value = getValue();
+            return name.equals(entry.getKey())
+                    && (value == null ? entry.getValue() == null : value
+                            .equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return name.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + getValue();
+        }
+    }
+}
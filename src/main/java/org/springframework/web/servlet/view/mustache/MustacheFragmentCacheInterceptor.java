@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.servlet.LocaleResolver;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.github.mustachejava.Iteration;
+import com.github.mustachejava.MustacheException;
+
+/**
+ * Spring Interceptor to add a model attribute, so a Mustache template can
+ * cache the rendered output of an expensive section, e.g. a navigation menu.
+ * 
+ * e.g. {{#cache.navigation}}{{> navigation}}{{/cache.navigation}}
+ * 
+ * The section is cached by view name, key ('navigation') and locale in a
+ * {@link FragmentCache}. On a miss it is rendered in place, in the current
+ * scope, e.g. with the item of an enclosing loop, and on a hit the cached
+ * text is written as is without running the section. Sections sharing a key
+ * share their output, so a section inside a loop needs a key per item if its
+ * output depends on the item.
+ * 
+ * The templates must be compiled by a factory using a
+ * {@link FragmentCacheObjectHandler}, as {@link MustacheTemplateLoader} does.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class MustacheFragmentCacheInterceptor extends HandlerInterceptorAdapter {
+
+    /**
+     * Default key to be used in templates.
+     */
+    private static final String DEFAULT_MODEL_KEY = "cache";
+
+    private String cacheKey = DEFAULT_MODEL_KEY;
+    private FragmentCache fragmentCache = new FragmentCache();
+    private final LocaleResolver localeResolver;
+
+    public MustacheFragmentCacheInterceptor(LocaleResolver localeResolver) {
+        this.localeResolver = localeResolver;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request,
+            HttpServletResponse response,
+            Object handler,
+            ModelAndView modelAndView) throws Exception {
+
+        if (modelAndView == null) {
+            return;
+        }
+        Locale locale = localeResolver.resolveLocale(request);
+        String viewName = modelAndView.getViewName();
+
+        // The sections of {{#cacheKey.key}}section{{/cacheKey.key}}
+        modelAndView.addObject(cacheKey, new CachedSections(fragmentCache,
+                viewName, locale));
+    }
+
+    /**
+     * The cached sections of a view in a locale, by key.
+     */
+    private static class CachedSections extends AbstractMap<String, Object> {
+
+        private final FragmentCache fragmentCache;
+        private final String viewName;
+        private final Locale locale;
+
+        CachedSections(FragmentCache fragmentCache, String viewName,
+                Locale locale) {
+            this.fragmentCache = fragmentCache;
+            this.viewName = viewName;
+            this.locale = locale;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            return new CachedSection(fragmentCache, viewName + '\0' + key
+                    + '\0' + locale);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * A section rendered through the fragment cache by the
+     * {@link FragmentCacheObjectHandler}.
+     */
+    static class CachedSection {
+
+        private final FragmentCache fragmentCache;
+        private final String key;
+
+        CachedSection(FragmentCache fragmentCache, String key) {
+            this.fragmentCache = fragmentCache;
+            this.key = key;
+        }
+
+        /**
+         * Write the cached section, or run it in the current scope and cache
+         * its output.
+         */
+        Writer execute(Iteration iteration, Writer writer, Object[] scopes) {
+            String text = fragmentCache.get(key);
+            try {
+                if (text == null) {
+                    StringWriter section = new StringWriter();
+                    Writer result = iteration.next(section,
+                            Collections.emptyMap(), scopes);
+                    if (result != null) {
+                        result.flush();
+                    }
+                    text = section.toString();
+                    fragmentCache.put(key, text);
+                }
+                writer.write(text);
+            } catch (IOException e) {
+                throw new MustacheException(
+                        "Failed to render the cached section", e);
+            }
+            return writer;
+        }
+    }
+
+    /**
+     * Define custom key to cache sections in your Mustache template.
+     * 
+     * @param cacheKey
+     *            the key used in the template. The default cacheKey is
+     *            'cache'.
+     */
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    /**
+     * @param fragmentCache
+     *            the cache of the rendered sections, it can be shared by
+     *            several interceptors. The default is a {@link FragmentCache}
+     *            of 1000 sections cached for a minute.
+     */
+    public void setFragmentCache(FragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    public FragmentCache getFragmentCache() {
+        return fragmentCache;
+    }
+}
@@ -15,15 +15,48 @@
  */
 package org.springframework.web.servlet.view.mustache;
 
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ResourceLoaderAware;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
 
 import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheException;
 
 /**
@@ -33,19 +66,270 @@ import com.github.mustachejava.MustacheException;
  * the parent will be fully qualified, but partials within the parent will not
  * be.
  * 
+ * Compiled templates are cached by their fully qualified name. When
+ * 'reloadTemplates' is enabled the last modified time of the template and of
+ * every partial it includes is recorded at compile time, and a template is
+ * only recompiled once one of those sources has changed. Combined with a view
+ * resolver that has its 'cache' disabled this picks up edited templates
+ * without paying the compile cost on every request.
+ * 
+ * The partials included by each compiled template are recorded, so a change
+ * to a partial (or an explicit {@link #invalidate(String)}) only evicts the
+ * templates including it. A partial evicted by the template cache evicts the
+ * templates including it too, and templates leaving the cache are dropped
+ * from that record.
+ * 
+ * Callable values of the model can be evaluated concurrently while rendering
+ * on a bounded pool ('evaluationThreads') or on virtual threads
+ * ('virtualThreads') when the runtime supports them.
+ * 
+ * Templates can be overridden in layers (e.g. tenant, brand and default)
+ * with 'templateRoots', the first root containing a template or partial wins
+ * and that resolution is cached.
+ * 
+ * By default the compiled templates are cached without limit, a
+ * {@link BoundedTemplateCache} can be configured instead.
+ * 
  * @author Sean Scanlon <sean.scanlon@gmail.com>
  * @author Eric D. White <eric@ericwhite.ca>
  */
 public class MustacheTemplateLoader extends DefaultMustacheFactory implements
-        ResourceLoaderAware {
+        ResourceLoaderAware, InitializingBean, DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(MustacheTemplateLoader.class);
 
     private ResourceLoader resourceLoader;
     private String prefix = "";
+    private List<String> templateRoots = null;
     private String encoding = EncodingUtil.getEncoding();
 
-    
+    private boolean reloadTemplates = false;
+    private long modificationCheckInterval = 0;
+
+    private int resourceCacheSize = 1000;
+    private long resourceCacheTtl = 0;
+    private volatile ResourceLookupCache resourceCache = null;
+
+    private TemplateCache templateCache = new ConcurrentTemplateCache();
+
+    /**
+     * The resource found in the first template root containing each template,
+     * unless templates are reloaded.
+     */
+    private final ConcurrentMap<String, Resource> resolvedResources = new ConcurrentHashMap<String, Resource>();
+
+    private TemplateManifest templateManifest = null;
+
+    private boolean indexTemplates = false;
+    private volatile TemplateIndex templateIndex = null;
+
+    private int evaluationThreads = 0;
+    private int evaluationQueueCapacity = 1000;
+    private boolean virtualThreads = false;
+    private ExecutorService evaluationExecutor = null;
+
+    /**
+     * The cached templates including each partial, directly or not, guarded
+     * by itself together with includedTemplates.
+     */
+    private final Map<String, Set<String>> includingTemplates = new HashMap<String, Set<String>>();
+
+    /** The partials included by each cached template, directly or not. */
+    private final Map<String, Set<String>> includedTemplates = new HashMap<String, Set<String>>();
+
+    /** The templates being compiled, to let concurrent requests wait for them. */
+    private final ConcurrentMap<String, FutureTask<CachedTemplate>> compilations = new ConcurrentHashMap<String, FutureTask<CachedTemplate>>();
+
+    /** The templates being compiled on the current thread, innermost first. */
+    private final ThreadLocal<LinkedList<CachedTemplate>> compiling = new ThreadLocal<LinkedList<CachedTemplate>>();
+
+    /**
+     * Render the sections of a {@link MustacheFragmentCacheInterceptor}
+     * through its cache.
+     */
+    public MustacheTemplateLoader() {
+        setObjectHandler(new FragmentCacheObjectHandler());
+    }
+
     public void setPrefix(String prefix) {
         this.prefix = prefix;
+        this.templateIndex = null;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @param templateRoots
+     *            the locations searched in order for templates and partials,
+     *            e.g. tenant, brand and default, the first containing a
+     *            template wins. The part of a template name after the prefix
+     *            is looked up in each root. By default templates are only
+     *            looked up below the prefix.
+     */
+    public void setTemplateRoots(List<String> templateRoots) {
+        this.templateRoots = new ArrayList<String>(templateRoots);
+        this.templateIndex = null;
+        this.resolvedResources.clear();
+    }
+
+    private List<String> getTemplateRoots() {
+        if (templateRoots == null) {
+            return Collections.singletonList(prefix);
+        }
+        return templateRoots;
+    }
+
+    /**
+     * @param indexTemplates
+     *            if true, all the templates below the prefix (or the template
+     *            roots) are indexed once
+     *            and looking up a template becomes a lookup in that index (see
+     *            {@link #rescan()}). The default is false.
+     */
+    public void setIndexTemplates(boolean indexTemplates) {
+        this.indexTemplates = indexTemplates;
+    }
+
+    /**
+     * Index all the templates below the prefix again, e.g. after templates
+     * were added during development.
+     */
+    public TemplateIndex rescan() throws IOException {
+        Map<String, Resource> templates = new LinkedHashMap<String, Resource>();
+        for (String root : getTemplateRoots()) {
+            templates.putAll(findTemplates(root, ""));
+        }
+        TemplateIndex index = new TemplateIndex(templates);
+        this.templateIndex = index;
+        this.resolvedResources.clear();
+        return index;
+    }
+
+    /**
+     * @return the index of the templates, scanning them if needed, or null if
+     *         templates are not indexed
+     */
+    public TemplateIndex getTemplateIndex() {
+        if (!indexTemplates) {
+            return null;
+        }
+        TemplateIndex index = templateIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = templateIndex;
+                if (index == null) {
+                    try {
+                        index = rescan();
+                    } catch (IOException e) {
+                        throw new MustacheException(
+                                "Failed to index the templates in: " + prefix, e);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param reloadTemplates
+     *            if true, recompile a cached template when the template or one
+     *            of its partials has been modified since it was compiled. The
+     *            default is false, templates are compiled only once.
+     */
+    public void setReloadTemplates(boolean reloadTemplates) {
+        this.reloadTemplates = reloadTemplates;
+    }
+
+    /**
+     * @param modificationCheckInterval
+     *            the minimum number of milliseconds between two checks for
+     *            modifications of the same template. The default is 0, check
+     *            on every compile.
+     */
+    public void setModificationCheckInterval(long modificationCheckInterval) {
+        this.modificationCheckInterval = modificationCheckInterval;
+    }
+
+    /**
+     * @param templateCache
+     *            the cache of compiled templates, the default is unbounded
+     */
+    public void setTemplateCache(TemplateCache templateCache) {
+        this.templateCache = templateCache;
+        templateCache.setEvictionListener(new TemplateCache.EvictionListener() {
+            @Override
+            public void evicted(String name) {
+                for (String including : removeFromPartialGraph(name)) {
+                    MustacheTemplateLoader.this.templateCache.remove(including);
+                }
+            }
+        });
+    }
+
+    public TemplateCache getTemplateCache() {
+        return templateCache;
+    }
+
+    /**
+     * @param manifest
+     *            the manifest generated at build time by the
+     *            {@link TemplateManifestGenerator}, it lists the templates
+     *            and their partials instead of scanning the prefix (or the
+     *            template roots) for them. Templates added to a root after
+     *            the build are not listed.
+     */
+    public void setTemplateManifest(Resource manifest) throws IOException {
+        InputStream in = manifest.getInputStream();
+        try {
+            this.templateManifest = TemplateManifest.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public TemplateManifest getTemplateManifest() {
+        return templateManifest;
+    }
+
+    /**
+     * @param resourceCacheSize
+     *            the maximum number of template lookups, found or not, that are
+     *            cached. The default is 1000.
+     */
+    public void setResourceCacheSize(int resourceCacheSize) {
+        this.resourceCacheSize = resourceCacheSize;
+        this.resourceCache = createResourceCache();
+    }
+
+    /**
+     * @param resourceCacheTtl
+     *            the number of milliseconds the lookup of a template, found or
+     *            not, is cached. The default is 0, the resource loader is
+     *            queried on every lookup.
+     */
+    public void setResourceCacheTtl(long resourceCacheTtl) {
+        this.resourceCacheTtl = resourceCacheTtl;
+        this.resourceCache = createResourceCache();
+    }
+
+    private ResourceLookupCache createResourceCache() {
+        if (resourceCacheTtl <= 0 || resourceCacheSize <= 0) {
+            return null;
+        }
+        return new ResourceLookupCache(resourceCacheSize, resourceCacheTtl);
+    }
+
+    /**
+     * Forget all cached template lookups, e.g. after templates were added.
+     */
+    public void clearResourceCache() {
+        ResourceLookupCache cache = resourceCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        resolvedResources.clear();
     }
 
     @Override
@@ -53,13 +337,387 @@ public class MustacheTemplateLoader extends DefaultMustacheFactory implements
         this.resourceLoader = resourceLoader;
     }
 
+    public ResourceLoader getResourceLoader() {
+        return resourceLoader;
+    }
+
+    /**
+     * @param evaluationThreads
+     *            the number of threads evaluating Callable values of the
+     *            model concurrently while rendering. The default is 0, values
+     *            are evaluated by the rendering thread, unless an executor
+     *            service is set.
+     */
+    public void setEvaluationThreads(int evaluationThreads) {
+        this.evaluationThreads = evaluationThreads;
+    }
+
+    /**
+     * @param evaluationQueueCapacity
+     *            the number of evaluations waiting for a thread, once full
+     *            the rendering thread evaluates the value itself. The default
+     *            is 1000.
+     */
+    public void setEvaluationQueueCapacity(int evaluationQueueCapacity) {
+        this.evaluationQueueCapacity = evaluationQueueCapacity;
+    }
+
+    /**
+     * @param virtualThreads
+     *            if true, evaluate each Callable value of the model on its own
+     *            virtual thread when the runtime supports them, otherwise fall
+     *            back to the evaluation threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Create the executor service evaluating Callable values, unless one was
+     * set explicitly with setExecutorService.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (getExecutorService() != null) {
+            return;
+        }
+        ExecutorService executor = null;
+        if (virtualThreads) {
+            executor = newVirtualThreadPerTaskExecutor();
+        }
+        if (executor == null && evaluationThreads > 0) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+                    "mustache-evaluation-");
+            threadFactory.setDaemon(true);
+            executor = new ThreadPoolExecutor(evaluationThreads,
+                    evaluationThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(evaluationQueueCapacity),
+                    threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        if (executor != null) {
+            evaluationExecutor = executor;
+            setExecutorService(executor);
+        }
+    }
+
+    private ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            logger.warn("Virtual threads are not supported by this runtime");
+        } catch (InvocationTargetException e) {
+            logger.warn("Virtual threads are not available", e.getCause());
+        } catch (IllegalAccessException e) {
+            logger.warn("Virtual threads are not available", e);
+        }
+        return null;
+    }
+
+    /**
+     * Shut down the executor service created by this loader.
+     */
+    @Override
+    public void destroy() {
+        if (evaluationExecutor != null) {
+            evaluationExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Compile the template, or return the cached one if it was already
+     * compiled and none of its sources were modified since.
+     * 
+     * Concurrent requests for the same template that is not cached wait for a
+     * single compilation, different templates are compiled in parallel. A
+     * partial being compiled by another thread is compiled again rather than
+     * waited for, as that thread may in turn be waiting for a template being
+     * compiled by this one.
+     */
+    @Override
+    public Mustache compile(final String name) {
+        final String key = getFullyQualifiedResourceName(name);
+        CachedTemplate cached = templateCache.get(key);
+        if (cached == null || isModified(cached)) {
+            cached = compileOnce(name, key);
+        }
+        addSourcesToCompilingTemplates(cached);
+        return cached.getMustache();
+    }
+
+    private CachedTemplate compileOnce(final String name, final String key) {
+        if (isCompiling(key)) {
+            // a template including itself, waiting would never end
+            return compileTemplate(name, key);
+        }
+        FutureTask<CachedTemplate> compilation = new FutureTask<CachedTemplate>(
+                new Callable<CachedTemplate>() {
+                    @Override
+                    public CachedTemplate call() {
+                        CachedTemplate template = compileTemplate(name, key);
+                        cacheTemplate(key, template);
+                        return template;
+                    }
+                });
+        FutureTask<CachedTemplate> inProgress = compilations.putIfAbsent(key,
+                compilation);
+        if (inProgress != null && !getCompilingTemplates().isEmpty()) {
+            // only top level compilations, holding no template, may wait
+            CachedTemplate template = compileTemplate(name, key);
+            cacheTemplate(key, template);
+            return template;
+        }
+        if (inProgress == null) {
+            inProgress = compilation;
+            try {
+                compilation.run();
+            } finally {
+                compilations.remove(key, compilation);
+            }
+        }
+        try {
+            return inProgress.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new MustacheException("Failed to compile template: " + key,
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MustacheException(
+                    "Interrupted while waiting for template: " + key, e);
+        }
+    }
+
+    private void cacheTemplate(String key, CachedTemplate template) {
+        templateCache.put(key, template);
+        Set<String> partials = new LinkedHashSet<String>(template.getSources()
+                .keySet());
+        partials.remove(key);
+        synchronized (includingTemplates) {
+            unlinkPartials(key);
+            if (partials.isEmpty()) {
+                return;
+            }
+            includedTemplates.put(key, partials);
+            for (String partial : partials) {
+                Set<String> including = includingTemplates.get(partial);
+                if (including == null) {
+                    including = new LinkedHashSet<String>();
+                    includingTemplates.put(partial, including);
+                }
+                including.add(key);
+            }
+        }
+    }
+
+    /**
+     * Remove the template, and every template including it, from the partial
+     * graph.
+     * 
+     * @return the fully qualified names of the templates including it
+     */
+    private Set<String> removeFromPartialGraph(String key) {
+        synchronized (includingTemplates) {
+            unlinkPartials(key);
+            Set<String> including = includingTemplates.remove(key);
+            if (including == null) {
+                return Collections.emptySet();
+            }
+            // the graph is transitive, every template including these is
+            // already in the set
+            for (String name : including) {
+                unlinkPartials(name);
+                includingTemplates.remove(name);
+            }
+            return including;
+        }
+    }
+
+    /**
+     * Remove the template from the templates including each of its partials.
+     */
+    private void unlinkPartials(String key) {
+        Set<String> partials = includedTemplates.remove(key);
+        if (partials == null) {
+            return;
+        }
+        for (String partial : partials) {
+            Set<String> including = includingTemplates.get(partial);
+            if (including != null) {
+                including.remove(key);
+                if (including.isEmpty()) {
+                    includingTemplates.remove(partial);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the latest last modified time of the cached template and its
+     *         partials, or -1 if it is not cached or not reloading
+     */
+    public long getLastModified(String templateName) {
+        CachedTemplate cached = templateCache
+                .get(getFullyQualifiedResourceName(templateName));
+        return cached == null ? -1 : cached.getLastModified();
+    }
+
+    /**
+     * @return the fully qualified names of the partials the cached template
+     *         includes, directly or through other partials
+     */
+    public Set<String> getIncludedTemplates(String templateName) {
+        synchronized (includingTemplates) {
+            Set<String> included = includedTemplates
+                    .get(getFullyQualifiedResourceName(templateName));
+            if (included == null) {
+                return Collections.emptySet();
+            }
+            return new LinkedHashSet<String>(included);
+        }
+    }
+
+    /**
+     * @return the fully qualified names of the cached templates including the
+     *         partial, directly or through other partials
+     */
+    public Set<String> getIncludingTemplates(String partialName) {
+        synchronized (includingTemplates) {
+            Set<String> including = includingTemplates
+                    .get(getFullyQualifiedResourceName(partialName));
+            if (including == null) {
+                return Collections.emptySet();
+            }
+            return new LinkedHashSet<String>(including);
+        }
+    }
+
+    /**
+     * Evict the template and every template including it from the cache, the
+     * rest of the cache is left untouched.
+     * 
+     * @return the fully qualified names of the evicted templates
+     */
+    public Set<String> invalidate(String templateName) {
+        String key = getFullyQualifiedResourceName(templateName);
+        Set<String> evicted = new LinkedHashSet<String>();
+        evicted.add(key);
+        evicted.addAll(removeFromPartialGraph(key));
+        for (String name : evicted) {
+            templateCache.remove(name);
+        }
+        resolvedResources.remove(key);
+        return evicted;
+    }
+
+    private boolean isCompiling(String key) {
+        for (CachedTemplate template : getCompilingTemplates()) {
+            if (template.getName().equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CachedTemplate compileTemplate(String name, String key) {
+        CachedTemplate template = new CachedTemplate(key);
+        LinkedList<CachedTemplate> templates = compiling.get();
+        if (templates == null) {
+            templates = new LinkedList<CachedTemplate>();
+            compiling.set(templates);
+        }
+        templates.addFirst(template);
+        try {
+            template.setMustache(compile(getReader(name), name));
+        } finally {
+            templates.removeFirst();
+            if (templates.isEmpty()) {
+                compiling.remove();
+            }
+        }
+        return template;
+    }
+
+    private List<CachedTemplate> getCompilingTemplates() {
+        List<CachedTemplate> templates = compiling.get();
+        if (templates == null) {
+            return Collections.emptyList();
+        }
+        return templates;
+    }
+
+    /**
+     * A cached partial included by a template being compiled is a source of
+     * that template too.
+     */
+    private void addSourcesToCompilingTemplates(CachedTemplate template) {
+        for (CachedTemplate parent : getCompilingTemplates()) {
+            parent.addSources(template);
+        }
+    }
+
+    private boolean isModified(CachedTemplate template) {
+        if (!reloadTemplates) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - template.getLastChecked() < modificationCheckInterval) {
+            return false;
+        }
+        template.setLastChecked(now);
+        for (Map.Entry<String, Long> source : template.getSources().entrySet()) {
+            Resource resource = locateResource(source.getKey());
+            if (resource == null
+                    || lastModified(resource) != source.getValue()) {
+                invalidate(source.getKey());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recordSource(String resourceName, Resource resource) {
+        List<CachedTemplate> templates = getCompilingTemplates();
+        if (templates.isEmpty()) {
+            return;
+        }
+        long lastModified = reloadTemplates ? lastModified(resource) : -1;
+        for (CachedTemplate template : templates) {
+            template.addSource(resourceName, lastModified);
+        }
+    }
+
+    /**
+     * @return the last modified time of the resource or -1 if it can not be
+     *         determined (e.g. the resource was removed)
+     */
+    private long lastModified(Resource resource) {
+        try {
+            return resource.lastModified();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
     @Override
     public Reader getReader(String resourceName) {
         resourceName = getFullyQualifiedResourceName(resourceName);
-        Resource resource = resourceLoader.getResource(resourceName);
-        if (resource.exists()) {
+        Resource resource = locateResource(resourceName);
+        if (resource != null) {
+            recordSource(resourceName, resource);
             try {
-                return new InputStreamReader(resource.getInputStream(), encoding);
+                Reader reader = new InputStreamReader(resource.getInputStream(), encoding);
+                List<CachedTemplate> templates = getCompilingTemplates();
+                if (templates.isEmpty()) {
+                    return reader;
+                }
+                return new CountingReader(reader, new ArrayList<CachedTemplate>(templates));
             } catch (IOException e) {
                 throw new MustacheException("Failed to load template: "
                         + resourceName, e);
@@ -68,6 +726,131 @@ public class MustacheTemplateLoader extends DefaultMustacheFactory implements
         throw new MustacheException("No template exists named: " + resourceName);
     }
 
+    /**
+     * @return the resource of the template, from the first template root
+     *         containing it, or null if it does not exist. With
+     *         'reloadTemplates' the roots are searched again on every lookup
+     *         (through the resource cache, if any), so a template added to a
+     *         higher root or deleted is seen.
+     */
+    private Resource locateResource(String resourceName) {
+        if (templateRoots == null) {
+            return findResource(resourceName);
+        }
+        Resource resource = reloadTemplates ? null : resolvedResources
+                .get(resourceName);
+        if (resource != null) {
+            return resource;
+        }
+        String relativeName = getRelativeResourceName(resourceName);
+        for (String root : templateRoots) {
+            resource = findResource(root + relativeName);
+            if (resource != null) {
+                if (!reloadTemplates) {
+                    resolvedResources.put(resourceName, resource);
+                }
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the resource or null if it does not exist
+     */
+    private Resource findResource(String resourceName) {
+        TemplateIndex index = getTemplateIndex();
+        if (index != null) {
+            TemplateIndex.Entry entry = index.get(StringUtils
+                    .cleanPath(resourceName));
+            return entry == null ? null : entry.getResource();
+        }
+        ResourceLookupCache cache = resourceCache;
+        if (cache != null) {
+            ResourceLookupCache.Entry entry = cache.get(resourceName);
+            if (entry != null) {
+                return entry.getResource();
+            }
+        }
+        Resource resource = resourceLoader.getResource(resourceName);
+        if (!resource.exists()) {
+            resource = null;
+        }
+        if (cache != null) {
+            cache.put(resourceName, resource);
+        }
+        return resource;
+    }
+
+    /**
+     * Find every template below the prefix (or the template roots), from the
+     * template manifest or index if one is set.
+     * 
+     * @param suffix
+     *            the suffix of the template files, e.g. '.html'
+     * @return the fully qualified names of the templates found
+     */
+    public List<String> getTemplateNames(String suffix) throws IOException {
+        if (templateManifest != null) {
+            List<String> templateNames = new ArrayList<String>();
+            for (String templateName : templateManifest.getTemplateNames()) {
+                // like a scan, only the templates found in a template root
+                if (templateName.endsWith(suffix)
+                        && (templateRoots == null || locateResource(prefix
+                                + templateName) != null)) {
+                    templateNames.add(prefix + templateName);
+                }
+            }
+            return templateNames;
+        }
+        TemplateIndex index = getTemplateIndex();
+        Set<String> templateNames = new LinkedHashSet<String>();
+        for (String root : getTemplateRoots()) {
+            Set<String> locations = index != null ? index.getTemplateNames()
+                    : findTemplates(root, suffix).keySet();
+            String cleanRoot = StringUtils.cleanPath(root);
+            for (String location : locations) {
+                String relativeName = null;
+                if (location.startsWith(root)) {
+                    relativeName = location.substring(root.length());
+                } else if (location.startsWith(cleanRoot)) {
+                    relativeName = location.substring(cleanRoot.length());
+                }
+                if (relativeName != null && relativeName.endsWith(suffix)) {
+                    templateNames.add(prefix + relativeName);
+                }
+            }
+        }
+        return new ArrayList<String>(templateNames);
+    }
+
+    /**
+     * @return the readable resources below the root with the suffix, by
+     *         location
+     */
+    private Map<String, Resource> findTemplates(String root, String suffix)
+            throws IOException {
+        ResourcePatternResolver resolver = ResourcePatternUtils
+                .getResourcePatternResolver(resourceLoader);
+        String rootUrl = resolver.getResource(root).getURL().toString();
+        Map<String, Resource> templates = new LinkedHashMap<String, Resource>();
+        for (Resource resource : resolver.getResources(root + "**/*" + suffix)) {
+            String url = resource.getURL().toString();
+            if (url.startsWith(rootUrl) && !url.endsWith("/")
+                    && resource.isReadable()) {
+                templates.put(root + url.substring(rootUrl.length()), resource);
+            }
+        }
+        return templates;
+    }
+
+    private String getRelativeResourceName(String resourceName) {
+        if (resourceName.startsWith(this.prefix)) {
+            return resourceName.substring(this.prefix.length());
+        }
+        return resourceName;
+    }
+
     /**
      * This is to handle partials within templates that have been prefixed in
      * the View Resolver.
@@ -96,4 +879,42 @@ public class MustacheTemplateLoader extends DefaultMustacheFactory implements
         }
         return this.prefix + resourceName;
     }
+
+    /**
+     * Adds the number of characters read to the size of the templates being
+     * compiled.
+     */
+    private static class CountingReader extends FilterReader {
+
+        private final List<CachedTemplate> templates;
+
+        CountingReader(Reader reader, List<CachedTemplate> templates) {
+            super(reader);
+            this.templates = templates;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) {
+                count(1);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int characters) {
+            for (CachedTemplate template : templates) {
+                template.addSize(characters);
+            }
+        }
+    }
 }
@@ -15,29 +15,197 @@
  */
 package org.springframework.web.servlet.view.mustache;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.util.ClassUtils;
+import org.springframework.web.servlet.LocaleResolver;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.i18n.AcceptHeaderLocaleResolver;
+import org.springframework.web.servlet.support.RequestContextUtils;
 import org.springframework.web.servlet.view.AbstractTemplateView;
 
 import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheException;
+import com.google.common.base.Function;
 
 /**
  * This is the spring view use to generate the content based on a Mustache
  * template.
  * 
+ * Large pages can be streamed: 'bufferSize' sets the response buffer size,
+ * 'flushThreshold' flushes the response every time that many characters have
+ * been rendered and 'flushKey' adds a lambda to the model to flush at explicit
+ * points of the template, e.g. after the head:
+ * 
+ * <pre>
+ *   &lt;/head&gt;{{#flush}}{{/flush}}
+ * </pre>
+ * 
+ * With 'preEncodeText' the static text of the template is encoded once and
+ * then copied as bytes to the response output stream.
+ * 
+ * With 'bufferOutput' the page is rendered in a pooled buffer and sent with a
+ * Content-Length header instead of being streamed.
+ * 
+ * Conditional GETs are supported with a strong ETag computed either from the
+ * rendered page ('generateEtag') or, without rendering the template, from
+ * the model attributes the page depends on ('etagAttributes'). A model ETag
+ * also covers the locale and the version of the template and its partials,
+ * and the response varies on Accept-Language when the locale comes from it.
+ * 
+ * With 'compress' the response is compressed with gzip or deflate when the
+ * request accepts it, using pooled deflaters. When buffered, the compressed
+ * form of the last page rendered is kept so that a page which renders the
+ * same content every time, e.g. a fully static view, is only compressed once.
+ * The ETag of a compressed page names its content encoding. A streamed page
+ * with 'flushThreshold' or 'flushKey' is not compressed, a deflater stream
+ * can not flush what it has compressed so far, and a page whose rendering
+ * fails is left without the compressed trailer so the client sees it is
+ * truncated.
+ * 
+ * With a 'pageCache' and 'pageCacheAttributes' the rendered page is cached
+ * by view name, locale and the values of those model attributes, and sent
+ * from the cache until it expires ('pageCacheTtl') or is invalidated.
+ * 
+ * With 'prefetchDeferredValues' and an executor service, the Callable and
+ * Future values of the model ('deferredAttributes', or else all of them) are
+ * started when rendering begins instead of one after the other as the
+ * template reaches them. A value still pending after 'deferredTimeout' is
+ * rendered as 'deferredFallback'. The executor service must not be the one
+ * the template loader evaluates Callable values on, whose threads would wait
+ * for values queued behind them.
+ * 
+ * With 'asyncWrite' a buffered page is written asynchronously by a Servlet
+ * 3.1 WriteListener, releasing the request thread while the page goes out to
+ * a slow client. Older containers, and requests not supporting async, are
+ * written on the request thread.
+ * 
+ * With 'lazyModel' the template looks its values up in the controller model,
+ * the static attributes and the exposed request and session attributes,
+ * without merging them into a new map for every request.
+ * 
  * @author Sean Scanlon <sean.scanlon@gmail.com>
  * @author Eric D. White <eric@ericwhite.ca>
  */
 public class MustacheView extends AbstractTemplateView {
 
+    /** True if the container supports non-blocking writes, Servlet 3.1. */
+    private static final boolean nonBlockingWriteAvailable = ClassUtils
+            .isPresent("javax.servlet.WriteListener",
+                    MustacheView.class.getClassLoader());
+
     private Mustache template;
     
     private String encoding = EncodingUtil.getEncoding();
 
+    private int bufferSize = 0;
+
+    private int flushThreshold = 0;
+
+    private String flushKey = null;
+
+    private boolean preEncodeText = false;
+
+    private boolean bufferOutput = false;
+
+    private String[] etagAttributes = null;
+
+    private long templateLastModified = -1;
+
+    private boolean generateEtag = false;
+
+    private boolean compress = false;
+
+    private int compressionLevel = 6;
+
+    private int compressionMinSize = 256;
+
+    private volatile DeflaterPool deflaterPool;
+
+    private PageCache pageCache = null;
+
+    private String[] pageCacheAttributes = null;
+
+    private long pageCacheTtl = 60000;
+
+    private boolean prefetchDeferredValues = false;
+
+    private ExecutorService executorService = null;
+
+    private String[] deferredAttributes = null;
+
+    private long deferredTimeout = 0;
+
+    private Object deferredFallback = null;
+
+    private boolean asyncWrite = false;
+
+    private long asyncWriteTimeout = 0;
+
+    private boolean lazyModel = false;
+
+    private boolean exposeRequestAttributes = false;
+
+    private boolean exposeSessionAttributes = false;
+
+    private boolean exposeSpringMacroHelpers = true;
+
+    /** The last page compressed by content encoding, see renderBuffered. */
+    private final Map<String, CompressedPage> compressedPages = new ConcurrentHashMap<String, CompressedPage>();
+
+    /** The encoded static text of the template, see PreEncodingWriter. */
+    private final EncodedTextCache encodedText = new EncodedTextCache();
+
+    /**
+     * With 'lazyModel', render a {@link ModelScope} looking the values up on
+     * demand instead of the model merged by AbstractView.
+     */
+    @Override
+    public void render(Map<String, ?> model, HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        if (!lazyModel) {
+            super.render(model, request, response);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, ?> pathVariables = (Map<String, ?>) request
+                .getAttribute(View.PATH_VARIABLES);
+        Set<String> requestContextAttributes = new HashSet<String>(2);
+        if (getRequestContextAttribute() != null) {
+            requestContextAttributes.add(getRequestContextAttribute());
+        }
+        if (exposeSpringMacroHelpers) {
+            requestContextAttributes.add(SPRING_MACRO_REQUEST_CONTEXT_ATTRIBUTE);
+        }
+        ModelScope scope = new ModelScope(model, pathVariables,
+                getStaticAttributes(), request, response, getServletContext(),
+                exposeRequestAttributes, exposeSessionAttributes,
+                requestContextAttributes);
+        prepareResponse(request, response);
+        renderMergedTemplateModel(scope, request, response);
+    }
+
     @Override
     protected void renderMergedTemplateModel(Map<String, Object> model,
             HttpServletRequest request,
@@ -45,12 +213,583 @@ public class MustacheView extends AbstractTemplateView {
 
         response.setContentType(getContentType());
         response.setCharacterEncoding(encoding);
-        final Writer writer = response.getWriter();
+        String contentEncoding = null;
+        if (compress && !isFlushingStream()) {
+            response.addHeader("Vary", "Accept-Encoding");
+            contentEncoding = ContentEncodings.negotiate(request
+                    .getHeader("Accept-Encoding"));
+        }
+        if (etagAttributes != null) {
+            if (isLocaleFromRequest(request)) {
+                response.addHeader("Vary", "Accept-Language");
+            }
+            String etag = EtagUtils.withContentEncoding(
+                    getModelEtag(model, request), contentEncoding);
+            response.setHeader("ETag", etag);
+            if (EtagUtils.isNotModified(request, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        if (pageCache != null && pageCacheAttributes != null) {
+            renderCached(getPageKey(model, request), model, request,
+                    response, contentEncoding);
+            return;
+        }
+        if (bufferOutput || generateEtag) {
+            renderBuffered(model, request, response, contentEncoding);
+            return;
+        }
+        if (bufferSize > 0) {
+            response.setBufferSize(bufferSize);
+        }
+        Writer writer;
+        CompressingOutputStream compressed = null;
+        if (contentEncoding != null) {
+            response.setHeader("Content-Encoding", contentEncoding);
+            compressed = new CompressingOutputStream(
+                    response.getOutputStream(), getDeflaterPool(),
+                    contentEncoding);
+            writer = newEncodingWriter(compressed);
+        } else if (preEncodeText) {
+            writer = newEncodingWriter(response.getOutputStream());
+        } else {
+            writer = response.getWriter();
+        }
+        if (flushThreshold > 0) {
+            writer = new FlushingWriter(writer, flushThreshold);
+        }
+        if (flushKey != null) {
+            model.put(flushKey, new FlushFunction(writer));
+        }
+        boolean rendered = false;
         try {
-            template.execute(writer, model);
+            execute(writer, model);
+            rendered = true;
         } finally {
-            writer.flush();
+            try {
+                if (compressed == null) {
+                    writer.flush();
+                } else if (rendered) {
+                    writer.flush();
+                    compressed.finish();
+                    compressed.flush();
+                }
+            } finally {
+                if (compressed != null) {
+                    compressed.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Render the whole page in a pooled buffer to send it with its
+     * Content-Length in one pass, or no body at all if the ETag of the page
+     * matches the request.
+     * 
+     * @param contentEncoding
+     *            the content encoding to compress the page with, or null
+     */
+    private void renderBuffered(Map<String, Object> model,
+            HttpServletRequest request, HttpServletResponse response,
+            String contentEncoding) throws IOException {
+        RenderBuffer buffer = RenderBuffer.acquire();
+        try {
+            render(buffer, model);
+            sendBuffered(buffer, request, response, contentEncoding);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Send the page cached under the key, rendering and caching it first if
+     * it is not cached.
+     */
+    private void renderCached(String pageKey, Map<String, Object> model,
+            HttpServletRequest request, HttpServletResponse response,
+            String contentEncoding) throws IOException {
+        byte[] page = pageCache.get(pageKey);
+        if (page != null) {
+            sendBuffered(RenderBuffer.wrap(page), request, response,
+                    contentEncoding);
+            return;
+        }
+        RenderBuffer buffer = RenderBuffer.acquire();
+        try {
+            render(buffer, model);
+            pageCache.put(pageKey, buffer.toByteArray(), pageCacheTtl);
+            sendBuffered(buffer, request, response, contentEncoding);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private void render(RenderBuffer buffer, Map<String, Object> model)
+            throws IOException {
+        Writer writer = newEncodingWriter(buffer);
+        execute(writer, model);
+        writer.flush();
+    }
+
+    /**
+     * Send the rendered page with its Content-Length, or no body at all if
+     * the ETag of the page matches the request.
+     */
+    private void sendBuffered(RenderBuffer buffer, HttpServletRequest request,
+            HttpServletResponse response, String contentEncoding)
+            throws IOException {
+        // the ETag of the model already names the content encoding
+        if (contentEncoding != null && etagAttributes == null
+                && buffer.size() < compressionMinSize) {
+            contentEncoding = null;
+        }
+        byte[] contentDigest = null;
+        if ((generateEtag && etagAttributes == null)
+                || contentEncoding != null) {
+            MessageDigest digest = EtagUtils.newDigest();
+            buffer.update(digest);
+            contentDigest = digest.digest();
+        }
+        if (generateEtag && etagAttributes == null) {
+            String etag = EtagUtils.withContentEncoding(
+                    EtagUtils.toEtag(contentDigest), contentEncoding);
+            response.setHeader("ETag", etag);
+            if (EtagUtils.isNotModified(request, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        ServletOutputStream out = response.getOutputStream();
+        byte[] page = null;
+        if (contentEncoding != null) {
+            page = compress(buffer, contentEncoding, contentDigest);
+            response.setHeader("Content-Encoding", contentEncoding);
+            response.setContentLength(page.length);
+        } else {
+            response.setContentLength(buffer.size());
+        }
+        if (asyncWrite && nonBlockingWriteAvailable
+                && request.isAsyncSupported()) {
+            AsyncPageWriter.start(request, out,
+                    page != null ? page : buffer.toByteArray(),
+                    asyncWriteTimeout);
+            return;
+        }
+        if (page != null) {
+            out.write(page);
+        } else {
+            buffer.writeTo(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the compressed page, compressed again only if its content
+     *         differs from the last page compressed with this encoding
+     */
+    private byte[] compress(RenderBuffer buffer, String contentEncoding,
+            byte[] contentDigest) throws IOException {
+        CompressedPage last = compressedPages.get(contentEncoding);
+        if (last != null && Arrays.equals(last.digest, contentDigest)) {
+            return last.bytes;
+        }
+        ByteArrayOutputStream compressedBuffer = new ByteArrayOutputStream(
+                Math.max(64, buffer.size() / 4));
+        CompressingOutputStream compressed = new CompressingOutputStream(
+                compressedBuffer, getDeflaterPool(), contentEncoding);
+        try {
+            buffer.writeTo(compressed);
+            compressed.finish();
+        } finally {
+            compressed.release();
+        }
+        byte[] bytes = compressedBuffer.toByteArray();
+        compressedPages.put(contentEncoding, new CompressedPage(contentDigest,
+                bytes));
+        return bytes;
+    }
+
+    private DeflaterPool getDeflaterPool() {
+        DeflaterPool pool = deflaterPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = deflaterPool;
+                if (pool == null) {
+                    pool = new DeflaterPool(compressionLevel, Runtime
+                            .getRuntime().availableProcessors() * 2);
+                    deflaterPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the page cache key of the model for this view, the view name,
+     *         the locale and the values of the page cache attributes
+     */
+    protected String getPageKey(Map<String, Object> model,
+            HttpServletRequest request) {
+        StringBuilder key = new StringBuilder(String.valueOf(getBeanName()));
+        key.append(PageCache.SEPARATOR).append(
+                RequestContextUtils.getLocale(request));
+        for (String attribute : pageCacheAttributes) {
+            key.append(PageCache.SEPARATOR).append(attribute).append('=')
+                    .append(model.get(attribute));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the ETag of the values of the ETag attributes in the model, for
+     *         this view, version of its template and locale
+     */
+    protected String getModelEtag(Map<String, Object> model,
+            HttpServletRequest request) {
+        MessageDigest digest = EtagUtils.newDigest();
+        Charset charset = Charset.forName(encoding);
+        digest.update(String.valueOf(getUrl()).getBytes(charset));
+        digest.update((byte) 0);
+        // without a last modified time, a recompiled template is a new
+        // instance
+        long version = templateLastModified >= 0 ? templateLastModified
+                : System.identityHashCode(template);
+        digest.update(String.valueOf(version).getBytes(charset));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(RequestContextUtils.getLocale(request))
+                .getBytes(charset));
+        for (String attribute : etagAttributes) {
+            digest.update((byte) 0);
+            digest.update(attribute.getBytes(charset));
+            digest.update((byte) '=');
+            digest.update(String.valueOf(model.get(attribute)).getBytes(charset));
+        }
+        return EtagUtils.toEtag(digest);
+    }
+
+    /**
+     * @return true if the page is streamed and flushed while rendering
+     */
+    private boolean isFlushingStream() {
+        return (flushThreshold > 0 || flushKey != null) && !bufferOutput
+                && !generateEtag
+                && (pageCache == null || pageCacheAttributes == null);
+    }
+
+    /**
+     * @return true if the locale is the one of the Accept-Language header
+     */
+    private static boolean isLocaleFromRequest(HttpServletRequest request) {
+        LocaleResolver localeResolver = RequestContextUtils
+                .getLocaleResolver(request);
+        return localeResolver == null
+                || localeResolver instanceof AcceptHeaderLocaleResolver;
+    }
+
+    /**
+     * @return a writer encoding the rendered text in the view's encoding to
+     *         the stream, reusing the encoded static text of the template
+     */
+    protected Writer newEncodingWriter(OutputStream out) {
+        return new PreEncodingWriter(out, Charset.forName(encoding),
+                encodedText);
+    }
+
+    protected String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Render the template, waiting for the Callable values evaluated
+     * concurrently when the template loader has an executor service.
+     */
+    protected void execute(Writer writer, Map<String, Object> model)
+            throws IOException {
+        if (prefetchDeferredValues && executorService != null) {
+            startDeferredValues(model);
         }
+        Writer unclosed = new UnclosedWriter(writer);
+        Writer result = template.execute(unclosed, model);
+        if (result != null && result != unclosed) {
+            // flushing does not wait for the Callable values, closing does
+            result.close();
+        }
+    }
+
+    /**
+     * Start evaluating the Callable values of the deferred attributes, or of
+     * the whole model, on the executor service and replace the Callable and
+     * Future values with a {@link DeferredValue} waiting for them until the
+     * deferred timeout.
+     * 
+     * A lazy model is not merged for this, only its controller model
+     * attributes are looked at.
+     */
+    protected void startDeferredValues(Map<String, Object> model) {
+        long deadline = deferredTimeout > 0 ? System.currentTimeMillis()
+                + deferredTimeout : 0;
+        if (deferredAttributes != null) {
+            for (String name : deferredAttributes) {
+                startDeferredValue(model, name, deadline);
+            }
+        } else if (model instanceof ModelScope) {
+            for (String name : ((ModelScope) model).getModelNames()) {
+                startDeferredValue(model, name, deadline);
+            }
+        } else {
+            for (String name : model.keySet()) {
+                startDeferredValue(model, name, deadline);
+            }
+        }
+    }
+
+    private void startDeferredValue(Map<String, Object> model, String name,
+            long deadline) {
+        Object value = model.get(name);
+        if (value instanceof Callable) {
+            Future<?> future = executorService.submit((Callable<?>) value);
+            model.put(name, new DeferredValue(name, future, deadline));
+        } else if (value instanceof Future) {
+            model.put(name, new DeferredValue(name, (Future<?>) value,
+                    deadline));
+        }
+    }
+
+    /**
+     * @param bufferSize
+     *            the response buffer size in bytes, the default is the
+     *            container's
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param flushThreshold
+     *            flush the response every time this number of characters has
+     *            been rendered. The default is 0, only flush at the end.
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * @param flushKey
+     *            the model key of a lambda flushing the response, e.g. with
+     *            'flush' a template can use {{#flush}}{{/flush}}. The default
+     *            is null, no lambda is added.
+     */
+    public void setFlushKey(String flushKey) {
+        this.flushKey = flushKey;
+    }
+
+    /**
+     * @param preEncodeText
+     *            if true, render to the response output stream, copying the
+     *            static text of the template as bytes encoded once instead of
+     *            encoding it on every render. The default is false.
+     */
+    public void setPreEncodeText(boolean preEncodeText) {
+        this.preEncodeText = preEncodeText;
+    }
+
+    /**
+     * @param bufferOutput
+     *            if true, render the whole page in a pooled buffer and send it
+     *            with a Content-Length header instead of streaming it. The
+     *            default is false.
+     */
+    public void setBufferOutput(boolean bufferOutput) {
+        this.bufferOutput = bufferOutput;
+    }
+
+    /**
+     * @param etagAttributes
+     *            the model attributes the page depends on. The ETag of the page
+     *            is computed from their values and a conditional GET matching
+     *            it is answered with 304 Not Modified without rendering the
+     *            template. The default is null.
+     */
+    public void setEtagAttributes(String[] etagAttributes) {
+        this.etagAttributes = etagAttributes;
+    }
+
+    /**
+     * @param templateLastModified
+     *            the latest last modified time of the template and its
+     *            partials, part of the model ETag, or -1 if it is unknown
+     */
+    public void setTemplateLastModified(long templateLastModified) {
+        this.templateLastModified = templateLastModified;
+    }
+
+    /**
+     * @param generateEtag
+     *            if true, and no ETag attributes are set, the page is buffered
+     *            and its ETag computed from the rendered content. A
+     *            conditional GET matching it is answered with 304 Not Modified
+     *            without a body. The default is false.
+     */
+    public void setGenerateEtag(boolean generateEtag) {
+        this.generateEtag = generateEtag;
+    }
+
+    /**
+     * @param compress
+     *            if true, compress the response with gzip or deflate when the
+     *            request accepts it, unless it is streamed with a flush
+     *            threshold or key. The default is false.
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @param compressionLevel
+     *            the deflate level, from 1 (fastest) to 9 (smallest). The
+     *            default is 6.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param compressionMinSize
+     *            buffered pages smaller than this number of bytes are not
+     *            compressed, unless their ETag is computed from the model as
+     *            it names the content encoding before rendering. The default
+     *            is 256.
+     */
+    public void setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    /**
+     * @param pageCache
+     *            the cache of the rendered pages, shared by the views. The
+     *            default is null, pages are not cached.
+     */
+    public void setPageCache(PageCache pageCache) {
+        this.pageCache = pageCache;
+    }
+
+    /**
+     * @param pageCacheAttributes
+     *            the model attributes the page depends on, besides the view
+     *            name and the locale. With a page cache, the rendered page is
+     *            cached by their values. The default is null, the page is not
+     *            cached.
+     */
+    public void setPageCacheAttributes(String[] pageCacheAttributes) {
+        this.pageCacheAttributes = pageCacheAttributes;
+    }
+
+    /**
+     * @param pageCacheTtl
+     *            the number of milliseconds a rendered page is cached. The
+     *            default is 60000.
+     */
+    public void setPageCacheTtl(long pageCacheTtl) {
+        this.pageCacheTtl = pageCacheTtl;
+    }
+
+    /**
+     * @param prefetchDeferredValues
+     *            if true, and the view has an executor service, start all the
+     *            Callable values of the model concurrently when rendering
+     *            begins. The default is false.
+     */
+    public void setPrefetchDeferredValues(boolean prefetchDeferredValues) {
+        this.prefetchDeferredValues = prefetchDeferredValues;
+    }
+
+    /**
+     * @param executorService
+     *            the executor service the Callable values of the model are
+     *            started on, not the template loader's
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * @param deferredAttributes
+     *            the model attributes whose Callable and Future values are
+     *            started when rendering begins. The default is null, all the
+     *            values of the model, or of the controller model with
+     *            'lazyModel'.
+     */
+    public void setDeferredAttributes(String[] deferredAttributes) {
+        this.deferredAttributes = deferredAttributes;
+    }
+
+    /**
+     * @param deferredTimeout
+     *            the number of milliseconds, from the start of rendering, to
+     *            wait for the Callable and Future values of the model. The
+     *            default is 0, wait until they are done.
+     */
+    public void setDeferredTimeout(long deferredTimeout) {
+        this.deferredTimeout = deferredTimeout;
+    }
+
+    /**
+     * @param deferredFallback
+     *            the value rendered in place of a value that timed out. The
+     *            default is null, rendered as a missing value.
+     */
+    public void setDeferredFallback(Object deferredFallback) {
+        this.deferredFallback = deferredFallback;
+    }
+
+    /**
+     * @param asyncWrite
+     *            if true, write buffered pages with non-blocking I/O once the
+     *            request is put in asynchronous mode, on Servlet 3.1
+     *            containers with async supported. The default is false.
+     */
+    public void setAsyncWrite(boolean asyncWrite) {
+        this.asyncWrite = asyncWrite;
+    }
+
+    /**
+     * @param asyncWriteTimeout
+     *            the number of milliseconds an asynchronous write may take.
+     *            The default is 0, the container's timeout.
+     */
+    public void setAsyncWriteTimeout(long asyncWriteTimeout) {
+        this.asyncWriteTimeout = asyncWriteTimeout;
+    }
+
+    /**
+     * @param lazyModel
+     *            if true, the template looks the values up in the controller
+     *            model, the static attributes and the exposed request and
+     *            session attributes on demand, instead of in a map merging
+     *            them for every request. The default is false.
+     */
+    public void setLazyModel(boolean lazyModel) {
+        this.lazyModel = lazyModel;
+    }
+
+    @Override
+    public void setExposeRequestAttributes(boolean exposeRequestAttributes) {
+        super.setExposeRequestAttributes(exposeRequestAttributes);
+        this.exposeRequestAttributes = exposeRequestAttributes;
+    }
+
+    @Override
+    public void setExposeSessionAttributes(boolean exposeSessionAttributes) {
+        super.setExposeSessionAttributes(exposeSessionAttributes);
+        this.exposeSessionAttributes = exposeSessionAttributes;
+    }
+
+    @Override
+    public void setExposeSpringMacroHelpers(boolean exposeSpringMacroHelpers) {
+        super.setExposeSpringMacroHelpers(exposeSpringMacroHelpers);
+        this.exposeSpringMacroHelpers = exposeSpringMacroHelpers;
     }
 
     public void setTemplate(Mustache template) {
@@ -60,4 +799,120 @@ public class MustacheView extends AbstractTemplateView {
     public Mustache getTemplate() {
         return template;
     }
+
+    /**
+     * A compressed page and the digest of its uncompressed content.
+     */
+    private static class CompressedPage {
+
+        private final byte[] digest;
+        private final byte[] bytes;
+
+        CompressedPage(byte[] digest, byte[] bytes) {
+            this.digest = digest;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A model value evaluated concurrently, the template waits for it when it
+     * reaches the value.
+     */
+    private class DeferredValue implements Callable<Object> {
+
+        private final String name;
+        private final Future<?> future;
+        private final long deadline;
+
+        DeferredValue(String name, Future<?> future, long deadline) {
+            this.name = name;
+            this.future = future;
+            this.deadline = deadline;
+        }
+
+        public Object call() throws Exception {
+            try {
+                if (deadline == 0) {
+                    return future.get();
+                }
+                return future.get(
+                        Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                logger.warn("Model value '" + name + "' of view '"
+                        + getBeanName() + "' timed out after "
+                        + deferredTimeout + "ms");
+                return deferredFallback;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The lambda flushing what has been rendered so far.
+     */
+    private static class FlushFunction implements Function<String, String> {
+
+        private final Writer writer;
+
+        FlushFunction(Writer writer) {
+            this.writer = writer;
+        }
+
+        public String apply(@Nullable String input) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new MustacheException("Failed to flush the response", e);
+            }
+            return input;
+        }
+    }
+
+    /**
+     * Passes everything to the writer, but only flushes it when closed.
+     */
+    private static class UnclosedWriter extends Writer {
+
+        private final Writer writer;
+
+        UnclosedWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(String text) throws IOException {
+            writer.write(text);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            writer.write(text, offset, length);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            writer.write(buffer, offset, length);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            writer.write(c);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * A size bounded, least recently used cache of rendered pages shared by the
+ * {@link MustacheView}s with page cache attributes. Pages are keyed by view
+ * name, locale and the values of the view's page cache attributes and expire
+ * after the view's time to live.
+ * 
+ * Pages can be invalidated by view name or by key prefix, e.g. when the data
+ * they were rendered from changes.
+ * 
+ * <pre>
+ * e.g.
+ *   &lt;bean id="pageCache" class="org.springframework.web.servlet.view.mustache.PageCache"&gt;
+ *       &lt;property name="maxSize" value="33554432" /&gt;
+ *   &lt;/bean&gt;
+ * </pre>
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PageCache {
+
+    /** Separates the parts of a page key. */
+    static final char SEPARATOR = '\0';
+
+    private long maxSize = 16 * 1024 * 1024;
+
+    private volatile Cache<String, Entry> pages = build();
+
+    /** The lookups of expired pages, counted as hits by the cache. */
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * @param maxSize
+     *            the maximum size, in bytes, of all the cached pages. The
+     *            default is 16MB.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        Cache<String, Entry> previous = pages;
+        pages = build();
+        pages.asMap().putAll(previous.asMap());
+        expiredCount.set(0);
+    }
+
+    /**
+     * @return the cached page or null if it is not cached or expired
+     */
+    public byte[] get(String key) {
+        Entry entry = pages.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            pages.asMap().remove(key, entry);
+            expiredCount.incrementAndGet();
+            return null;
+        }
+        return entry.page;
+    }
+
+    /**
+     * @param timeToLive
+     *            the number of milliseconds the page is cached
+     */
+    public void put(String key, byte[] page, long timeToLive) {
+        if (page.length > maxSize) {
+            pages.invalidate(key);
+            return;
+        }
+        pages.put(key, new Entry(page, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Remove all the pages of a view.
+     */
+    public void invalidate(String viewName) {
+        invalidatePrefix(viewName + SEPARATOR);
+    }
+
+    /**
+     * Remove all the pages with a key starting with the prefix.
+     */
+    public void invalidatePrefix(String prefix) {
+        List<String> keys = new ArrayList<String>();
+        for (String key : pages.asMap().keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        pages.invalidateAll(keys);
+    }
+
+    public void clear() {
+        pages.invalidateAll();
+    }
+
+    /**
+     * The pages have a time to live of their own, they are only removed once
+     * found expired or when evicted.
+     * 
+     * A single segment, so that the maximum size applies to the whole cache
+     * rather than to each segment, the lookups take no lock anyway.
+     */
+    private Cache<String, Entry> build() {
+        return CacheBuilder.newBuilder().concurrencyLevel(1)
+                .maximumWeight(maxSize).weigher(new Weigher<String, Entry>() {
+                    @Override
+                    public int weigh(String key, Entry entry) {
+                        return entry.page.length;
+                    }
+                }).build();
+    }
+
+    public int getEntryCount() {
+        return (int) pages.size();
+    }
+
+    /**
+     * @return the size, in bytes, of all the cached pages
+     */
+    public long getSize() {
+        long size = 0;
+        for (Entry entry : pages.asMap().values()) {
+            size += entry.page.length;
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return pages.stats().hitCount() - expiredCount.get();
+    }
+
+    public long getMissCount() {
+        return pages.stats().missCount() + expiredCount.get();
+    }
+
+    public long getEvictionCount() {
+        return pages.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "PageCache [entries=" + getEntryCount() + ", size=" + getSize()
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private static class Entry {
+
+        private final byte[] page;
+        private final long expires;
+
+        Entry(byte[] page, long expires) {
+            this.page = page;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes text straight to an output stream, reusing the encoded bytes of the
+ * text segments written over and over again.
+ * 
+ * The static text of a compiled template is written as the same strings on
+ * every render, so once encoded those segments are copied as bytes. Only the
+ * strings written again are cached (see {@link EncodedTextCache}), so dynamic
+ * values neither fill the cache nor contend for it. Short text is encoded
+ * every time.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class PreEncodingWriter extends Writer {
+
+    /** Shorter text is cheaper to encode than to look up. */
+    static final int MIN_CACHED_LENGTH = 32;
+
+    private final OutputStream out;
+    private final Charset charset;
+    private final EncodedTextCache encodedText;
+
+    /**
+     * @param encodedText
+     *            the cache of encoded text, shared by the renders of a view
+     */
+    PreEncodingWriter(OutputStream out, Charset charset,
+            EncodedTextCache encodedText) {
+        this.out = out;
+        this.charset = charset;
+        this.encodedText = encodedText;
+    }
+
+    @Override
+    public void write(String text) throws IOException {
+        if (text.length() < MIN_CACHED_LENGTH) {
+            out.write(text.getBytes(charset));
+            return;
+        }
+        byte[] bytes = encodedText.get(text);
+        if (bytes == null) {
+            bytes = text.getBytes(charset);
+            encodedText.encoded(text, bytes);
+        }
+        out.write(bytes);
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+        if (offset == 0 && length == text.length()) {
+            write(text);
+        } else {
+            out.write(text.substring(offset, offset + length).getBytes(charset));
+        }
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        out.write(new String(buffer, offset, length).getBytes(charset));
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(String.valueOf((char) c));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * A growable byte buffer reused by the renders of a thread, so buffering a
+ * rendered page does not allocate a new buffer per request.
+ * 
+ * A buffer is acquired for a render and released once its content has been
+ * written. Buffers that grew beyond {@link #MAX_RETAINED_SIZE} are not kept
+ * for reuse.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class RenderBuffer extends ByteArrayOutputStream {
+
+    static final int INITIAL_SIZE = 8 * 1024;
+
+    static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<RenderBuffer> buffers = new ThreadLocal<RenderBuffer>();
+
+    private boolean inUse = false;
+
+    RenderBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    private RenderBuffer(byte[] content) {
+        super(0);
+        buf = content;
+        count = content.length;
+    }
+
+    /**
+     * @return the buffer of the current thread, or a new one if it is already
+     *         in use (e.g. a view rendered while rendering another)
+     */
+    public static RenderBuffer acquire() {
+        RenderBuffer buffer = buffers.get();
+        if (buffer == null) {
+            buffer = new RenderBuffer();
+            buffers.set(buffer);
+        } else if (buffer.inUse) {
+            return new RenderBuffer();
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    /**
+     * @return a buffer holding the content without copying it, e.g. a cached
+     *         page, it is not acquired and must not be released
+     */
+    public static RenderBuffer wrap(byte[] content) {
+        return new RenderBuffer(content);
+    }
+
+    /**
+     * Return the buffer for reuse by the next render of the thread.
+     */
+    public void release() {
+        inUse = false;
+        reset();
+        if (buf.length > MAX_RETAINED_SIZE && buffers.get() == this) {
+            buffers.remove();
+        }
+    }
+
+    /**
+     * Add the content of the buffer to the digest.
+     */
+    public synchronized void update(MessageDigest digest) {
+        digest.update(buf, 0, count);
+    }
+
+    /**
+     * @return a stream reading the content of the buffer without copying it
+     */
+    public synchronized InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+}
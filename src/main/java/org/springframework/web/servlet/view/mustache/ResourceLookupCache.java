@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.core.io.Resource;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded, least recently used cache of resource lookups. Both the
+ * resources found and the names that do not exist are cached until their
+ * entry expires, so repeated lookups do not hit the resource loader.
+ *
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+class ResourceLookupCache {
+
+    private final Cache<String, Entry> entries;
+
+    /**
+     * @param maxSize
+     *            the maximum number of lookups cached
+     * @param timeToLive
+     *            the number of milliseconds a lookup is cached
+     */
+    ResourceLookupCache(int maxSize, long timeToLive) {
+        this.entries = CacheBuilder.newBuilder().maximumSize(maxSize)
+                .expireAfterWrite(timeToLive, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * @return the cached lookup or null if the name was not looked up or its
+     *         entry expired
+     */
+    Entry get(String name) {
+        return entries.getIfPresent(name);
+    }
+
+    /**
+     * @param resource
+     *            the resource found or null if it does not exist
+     */
+    Entry put(String name, Resource resource) {
+        Entry entry = new Entry(resource);
+        entries.put(name, entry);
+        return entry;
+    }
+
+    void clear() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * A lookup, the cache cannot hold the null of a name that does not exist.
+     */
+    static class Entry {
+
+        private final Resource resource;
+
+        Entry(Resource resource) {
+            this.resource = resource;
+        }
+
+        Resource getResource() {
+            return resource;
+        }
+    }
+}
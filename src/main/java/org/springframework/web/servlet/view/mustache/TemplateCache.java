@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+/**
+ * Holds the templates compiled by the {@link MustacheTemplateLoader}.
+ * 
+ * A template that is not (or no longer) cached is simply compiled again, so
+ * an implementation is free to evict templates at any time, as long as it
+ * notifies its {@link EvictionListener}.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public interface TemplateCache {
+
+    /**
+     * @return the cached template or null
+     */
+    CachedTemplate get(String name);
+
+    void put(String name, CachedTemplate template);
+
+    void remove(String name);
+
+    void clear();
+
+    void setEvictionListener(EvictionListener evictionListener);
+
+    /**
+     * Notified of the templates evicted by the cache itself, not of those
+     * removed with {@link TemplateCache#remove(String)} or
+     * {@link TemplateCache#clear()}. It is never called while the cache holds
+     * a lock, so it may call back into the cache.
+     */
+    interface EvictionListener {
+
+        void evicted(String name);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.StringUtils;
+
+/**
+ * An in-memory index of all the templates found below the prefix of a
+ * {@link MustacheTemplateLoader} when it was scanned, with their size and
+ * last modified time.
+ * 
+ * Looking up a template in the index replaces querying the resource loader,
+ * templates added after the scan are not found until the next scan.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class TemplateIndex {
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * @param resources
+     *            the templates found, by fully qualified name
+     */
+    TemplateIndex(Map<String, Resource> resources) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        for (Map.Entry<String, Resource> resource : resources.entrySet()) {
+            entries.put(StringUtils.cleanPath(resource.getKey()), new Entry(
+                    resource.getValue()));
+        }
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * @param templateName
+     *            the fully qualified and cleaned (see
+     *            {@link StringUtils#cleanPath(String)}) template name
+     * @return the indexed template or null if it was not found by the scan
+     */
+    public Entry get(String templateName) {
+        return entries.get(templateName);
+    }
+
+    public Set<String> getTemplateNames() {
+        return entries.keySet();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public static class Entry {
+
+        private final Resource resource;
+        private final long contentLength;
+        private final long lastModified;
+
+        Entry(Resource resource) {
+            this.resource = resource;
+            long contentLength;
+            try {
+                contentLength = resource.contentLength();
+            } catch (IOException e) {
+                contentLength = -1;
+            }
+            long lastModified;
+            try {
+                lastModified = resource.lastModified();
+            } catch (IOException e) {
+                lastModified = -1;
+            }
+            this.contentLength = contentLength;
+            this.lastModified = lastModified;
+        }
+
+        public Resource getResource() {
+            return resource;
+        }
+
+        /**
+         * @return the size in bytes when scanned, -1 if unknown
+         */
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * @return the last modified time when scanned, -1 if unknown
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
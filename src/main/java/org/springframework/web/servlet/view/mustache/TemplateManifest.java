@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * The list of templates below a prefix, each with the partials it includes
+ * (directly or not), as validated at build time by the
+ * {@link TemplateManifestGenerator}.
+ * 
+ * Template names are relative to the prefix. The manifest is stored as a
+ * UTF-8 text file, one template per line followed by its partials:
+ * 
+ * <pre>
+ * # Mustache template manifest
+ * test-parent.html: test-partial.html
+ * test-partial.html
+ * </pre>
+ * 
+ * The manifest only saves the scan for templates and lets the
+ * {@link TemplatePrecompiler} compile partials before the templates including
+ * them, each template is still parsed once when it is first compiled.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class TemplateManifest {
+
+    private static final String ENCODING = "UTF-8";
+
+    private final Map<String, Set<String>> templates = new TreeMap<String, Set<String>>();
+
+    public void addTemplate(String templateName) {
+        addTemplate(templateName, Collections.<String> emptySet());
+    }
+
+    public void addTemplate(String templateName, Collection<String> partials) {
+        templates.put(templateName, Collections
+                .unmodifiableSet(new TreeSet<String>(partials)));
+    }
+
+    public Set<String> getTemplateNames() {
+        return Collections.unmodifiableSet(templates.keySet());
+    }
+
+    /**
+     * @return the partials included by the template, or null if the template
+     *         is not in the manifest
+     */
+    public Set<String> getPartials(String templateName) {
+        return templates.get(templateName);
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, ENCODING);
+        writer.write("# Mustache template manifest\n");
+        for (Map.Entry<String, Set<String>> template : templates.entrySet()) {
+            writer.write(template.getKey());
+            if (!template.getValue().isEmpty()) {
+                writer.write(": ");
+                writer.write(StringUtils
+                        .collectionToDelimitedString(template.getValue(), ", "));
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    public static TemplateManifest read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                ENCODING));
+        TemplateManifest manifest = new TemplateManifest();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                manifest.addTemplate(line);
+            } else {
+                manifest.addTemplate(line.substring(0, colon).trim(),
+                        StringUtils.commaDelimitedListToSet(StringUtils
+                                .trimAllWhitespace(line.substring(colon + 1))));
+            }
+        }
+        return manifest;
+    }
+}
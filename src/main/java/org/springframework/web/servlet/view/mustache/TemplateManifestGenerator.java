@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.util.ResourceUtils;
+import org.springframework.util.StringUtils;
+
+import com.github.mustachejava.MustacheException;
+
+/**
+ * Compiles every template in a directory, or in layered template roots where
+ * the first root containing a template wins, failing on the first invalid
+ * template or missing partial, and writes the {@link TemplateManifest} of the
+ * templates and their partials.
+ * 
+ * Run it at build time, e.g. with the exec-maven-plugin, the template roots
+ * separated by the path separator:
+ * 
+ * <pre>
+ * java org.springframework.web.servlet.view.mustache.TemplateManifestGenerator \
+ *     src/main/webapp/WEB-INF/views .html target/classes/mustache-manifest.txt
+ * </pre>
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class TemplateManifestGenerator {
+
+    private final List<String> templateRoots = new ArrayList<String>();
+    private final String prefix;
+    private final String suffix;
+
+    /**
+     * @param templateDirectory
+     *            the directory of the templates, the prefix used by the view
+     *            resolver
+     * @param suffix
+     *            the suffix of the template files, e.g. '.html'
+     */
+    public TemplateManifestGenerator(File templateDirectory, String suffix) {
+        this(Collections.singletonList(templateDirectory), suffix);
+    }
+
+    /**
+     * @param templateRoots
+     *            the directories of the templates in the order of the template
+     *            loader's 'templateRoots', the first containing a template
+     *            wins
+     * @param suffix
+     *            the suffix of the template files, e.g. '.html'
+     */
+    public TemplateManifestGenerator(List<File> templateRoots, String suffix) {
+        for (File templateRoot : templateRoots) {
+            this.templateRoots.add(ResourceUtils.FILE_URL_PREFIX
+                    + StringUtils.cleanPath(templateRoot.getAbsolutePath())
+                    + "/");
+        }
+        this.prefix = this.templateRoots.get(0);
+        this.suffix = suffix;
+    }
+
+    /**
+     * @throws MustacheException
+     *             listing all the templates that fail to compile
+     */
+    public TemplateManifest generate() throws IOException {
+        MustacheTemplateLoader templateLoader = new MustacheTemplateLoader();
+        templateLoader.setResourceLoader(new DefaultResourceLoader());
+        templateLoader.setPrefix(prefix);
+        if (templateRoots.size() > 1) {
+            templateLoader.setTemplateRoots(templateRoots);
+        }
+
+        TemplateManifest manifest = new TemplateManifest();
+        StringBuilder failures = new StringBuilder();
+        for (String templateName : templateLoader.getTemplateNames(suffix)) {
+            try {
+                templateLoader.compile(templateName);
+            } catch (MustacheException e) {
+                failures.append("\n  ").append(relative(templateName))
+                        .append(": ").append(e.getMessage());
+                continue;
+            }
+            Set<String> partials = new LinkedHashSet<String>();
+            for (String partial : templateLoader
+                    .getIncludedTemplates(templateName)) {
+                partials.add(relative(partial));
+            }
+            manifest.addTemplate(relative(templateName), partials);
+        }
+        if (failures.length() > 0) {
+            throw new MustacheException("Invalid templates:" + failures);
+        }
+        return manifest;
+    }
+
+    private String relative(String templateName) {
+        if (templateName.startsWith(prefix)) {
+            return templateName.substring(prefix.length());
+        }
+        return templateName;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: TemplateManifestGenerator"
+                    + " <template directories> <suffix> <manifest file>");
+            System.exit(2);
+        }
+        List<File> templateRoots = new ArrayList<File>();
+        for (String templateRoot : StringUtils.delimitedListToStringArray(
+                args[0], File.pathSeparator)) {
+            templateRoots.add(new File(templateRoot));
+        }
+        TemplateManifest manifest;
+        try {
+            manifest = new TemplateManifestGenerator(templateRoots, args[1])
+                    .generate();
+        } catch (MustacheException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        File manifestFile = new File(args[2]);
+        if (manifestFile.getParentFile() != null) {
+            manifestFile.getParentFile().mkdirs();
+        }
+        OutputStream out = new FileOutputStream(manifestFile);
+        try {
+            manifest.write(out);
+        } finally {
+            out.close();
+        }
+    }
+}
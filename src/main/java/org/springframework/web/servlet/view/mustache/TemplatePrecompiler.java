@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.github.mustachejava.Mustache;
+
+/**
+ * Compiles a set of templates in parallel on a bounded pool so that they are
+ * cached by the {@link MustacheTemplateLoader} before the first request.
+ *
+ * Optionally every compiled template is rendered once with an empty model to
+ * warm up the rendering code paths.
+ *
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class TemplatePrecompiler {
+
+    private static final Log logger = LogFactory.getLog(TemplatePrecompiler.class);
+
+    private final MustacheTemplateLoader templateLoader;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean warmUp = false;
+
+    public TemplatePrecompiler(MustacheTemplateLoader templateLoader) {
+        this.templateLoader = templateLoader;
+    }
+
+    /**
+     * @param threads
+     *            the size of the pool compiling the templates. The default is
+     *            the number of available processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param warmUp
+     *            if true, render each compiled template once with an empty
+     *            model
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Compile all the templates under the template loader's prefix with the
+     * given suffix.
+     * 
+     * With a template manifest the partials are compiled before the
+     * templates including them, so that a partial shared by templates
+     * compiled in parallel is parsed once.
+     */
+    public Result precompile(String suffix) throws Exception {
+        List<String> templateNames = templateLoader.getTemplateNames(suffix);
+        TemplateManifest manifest = templateLoader.getTemplateManifest();
+        if (manifest == null) {
+            return precompile(templateNames);
+        }
+        return precompileLevels(getLevels(templateNames, manifest));
+    }
+
+    public Result precompile(Collection<String> templateNames)
+            throws InterruptedException {
+        return precompileLevels(Collections.singletonList(templateNames));
+    }
+
+    /**
+     * The partials of a template are a strict subset of those of a template
+     * including it, so templates with fewer partials come first and no
+     * template includes another one of the same level.
+     * 
+     * @return the templates by number of partials
+     */
+    private List<Collection<String>> getLevels(List<String> templateNames,
+            TemplateManifest manifest) {
+        String prefix = templateLoader.getPrefix();
+        Map<Integer, Collection<String>> levels = new TreeMap<Integer, Collection<String>>();
+        for (String templateName : templateNames) {
+            Set<String> partials = manifest.getPartials(templateName
+                    .substring(prefix.length()));
+            Integer size = partials != null ? partials.size() : 0;
+            Collection<String> level = levels.get(size);
+            if (level == null) {
+                level = new ArrayList<String>();
+                levels.put(size, level);
+            }
+            level.add(templateName);
+        }
+        return new ArrayList<Collection<String>>(levels.values());
+    }
+
+    /**
+     * Compile the templates level after level, each level in parallel.
+     */
+    private Result precompileLevels(List<? extends Collection<String>> levels)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int total = 0;
+        int largest = 0;
+        for (Collection<String> level : levels) {
+            total += level.size();
+            largest = Math.max(largest, level.size());
+        }
+
+        int compiled = 0;
+        if (largest > 0) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                    Math.min(threads, largest)));
+            try {
+                for (Collection<String> level : levels) {
+                    List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+                    for (String templateName : level) {
+                        tasks.add(new CompileTask(templateName));
+                    }
+                    compiled += count(executor.invokeAll(tasks));
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        return new Result(compiled, total - compiled,
+                System.currentTimeMillis() - start);
+    }
+
+    private int count(List<Future<Boolean>> results)
+            throws InterruptedException {
+        int compiled = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (result.get()) {
+                    compiled++;
+                }
+            } catch (ExecutionException e) {
+                // CompileTask reports its own failures
+            }
+        }
+        return compiled;
+    }
+
+    private class CompileTask implements Callable<Boolean> {
+
+        private final String templateName;
+
+        CompileTask(String templateName) {
+            this.templateName = templateName;
+        }
+
+        @Override
+        public Boolean call() {
+            Mustache template;
+            try {
+                template = templateLoader.compile(templateName);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to precompile template: " + templateName, e);
+                return Boolean.FALSE;
+            }
+            if (warmUp) {
+                try {
+                    template.execute(new StringWriter(),
+                            Collections.<String, Object> emptyMap());
+                } catch (RuntimeException e) {
+                    logger.debug("Failed to warm up template: " + templateName, e);
+                }
+            }
+            return Boolean.TRUE;
+        }
+    }
+
+    /**
+     * The outcome of a precompilation.
+     */
+    public static class Result {
+
+        private final int compiled;
+        private final int failed;
+        private final long elapsedMillis;
+
+        Result(int compiled, int failed, long elapsedMillis) {
+            this.compiled = compiled;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getCompiled() {
+            return compiled;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Precompiled " + compiled + " templates (" + failed
+                    + " failed) in " + elapsedMillis + "ms";
+        }
+    }
+}
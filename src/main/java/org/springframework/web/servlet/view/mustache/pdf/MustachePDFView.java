@@ -15,16 +15,25 @@
  */
 package org.springframework.web.servlet.view.mustache.pdf;
 
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Writer;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.DocumentBuilder;
 
 import org.springframework.web.servlet.view.mustache.MustacheView;
+import org.springframework.web.servlet.view.mustache.RenderBuffer;
 import org.w3c.dom.Document;
 import org.xhtmlrenderer.pdf.ITextRenderer;
 import org.xml.sax.InputSource;
@@ -33,10 +42,45 @@ import org.xml.sax.InputSource;
  * This is the spring view use to generate the content based on a Mustache
  * template and then return it as a pdf file.
  * 
+ * By default the markup is piped to the XML parser while the template is
+ * rendered ('streamMarkup'), so the rendered markup is never held in memory
+ * as a whole, only the parsed document is. The markup is parsed on the
+ * bounded parser pool of the resolver, when all its threads are busy (or
+ * without one) the markup is rendered in a buffer instead.
+ * 
+ * The DocumentBuilders and ITextRenderers are borrowed from a
+ * {@link PDFRendererPool}, shared by the views of a resolver.
+ * 
+ * With a {@link PDFRenderExecutor} the PDFs are laid out on its bounded pool
+ * instead of the request thread. When its queue is full the request fails
+ * fast with 503 Service Unavailable and a Retry-After header.
+ * 
  * @author kpacha <kpacha666@gmail.com>
+ * @author Eric D. White <eric@ericwhite.ca>
  */
 public class MustachePDFView extends MustacheView {
 
+    /** The size of the pipe between the template and the parser. */
+    static final int PIPE_SIZE = 64 * 1024;
+
+    /** The pool of the views not given one by their resolver. */
+    private static final PDFRendererPool defaultRendererPool = new PDFRendererPool(
+	    Runtime.getRuntime().availableProcessors());
+
+    private boolean streamMarkup = true;
+
+    /**
+     * The threads parsing piped markup, the pipe must not be read by the
+     * thread writing it.
+     */
+    private ExecutorService parserExecutor = null;
+
+    private PDFRendererPool rendererPool = defaultRendererPool;
+
+    private PDFRenderExecutor renderExecutor = null;
+
+    private int retryAfter = 5;
+
     public MustachePDFView() {
 	setContentType("application/pdf");
     }
@@ -51,28 +95,230 @@ public class MustachePDFView extends MustacheView {
 	    HttpServletRequest request, HttpServletResponse response)
 	    throws Exception {
 
-	StringWriter stringWriter = new StringWriter();
-	getTemplate().execute(stringWriter, model);
+	if (renderExecutor == null) {
+	    render(model, response);
+	    return;
+	}
+	if (!renderExecutor.admit()) {
+	    reject(response);
+	    return;
+	}
+	try {
+	    render(model, response);
+	} finally {
+	    renderExecutor.release();
+	}
+    }
+
+    private void render(Map<String, Object> model, HttpServletResponse response)
+	    throws Exception {
+	if (streamMarkup && parserExecutor != null) {
+	    renderPiped(model, response);
+	} else {
+	    renderBuffered(model, response);
+	}
+    }
+
+    /**
+     * Render the markup in a pooled buffer instead of a String, then parse
+     * it.
+     */
+    private void renderBuffered(Map<String, Object> model,
+	    HttpServletResponse response) throws Exception {
+	RenderBuffer buffer = RenderBuffer.acquire();
+	try {
+	    Writer writer = newEncodingWriter(buffer);
+	    execute(writer, model);
+	    writer.flush();
+
+	    InputSource content = new InputSource(buffer.toInputStream());
+	    content.setEncoding(getEncoding());
+	    ServletOutputStream servletOutputStream = response.getOutputStream();
+	    try {
+		layout(parse(content), servletOutputStream, response);
+	    } finally {
+		servletOutputStream.flush();
+	    }
+	} finally {
+	    buffer.release();
+	}
+    }
+
+    /**
+     * Render the markup into a bounded pipe parsed by another thread while
+     * the template is rendered.
+     */
+    private void renderPiped(Map<String, Object> model,
+	    HttpServletResponse response) throws Exception {
+	Document doc = parsePiped(model);
+	if (doc == null) {
+	    renderBuffered(model, response);
+	    return;
+	}
+	ServletOutputStream servletOutputStream = response.getOutputStream();
+	try {
+	    layout(doc, servletOutputStream, response);
+	} finally {
+	    servletOutputStream.flush();
+	}
+    }
+
+    /**
+     * @return the parsed document, or null if no parser thread is available
+     */
+    private Document parsePiped(Map<String, Object> model) throws Exception {
+	PipedOutputStream markup = new PipedOutputStream();
+	final PipedInputStream pipe = new PipedInputStream(markup, PIPE_SIZE);
+	final AtomicReference<Exception> parseFailure = new AtomicReference<Exception>();
+	Future<Document> parsed;
+	try {
+	    parsed = parserExecutor.submit(new Callable<Document>() {
+		public Document call() throws Exception {
+		    try {
+			InputSource content = new InputSource(pipe);
+			content.setEncoding(getEncoding());
+			return parse(content);
+		    } catch (Exception e) {
+			// set before the pipe is closed, so the template
+			// writing to it can report it
+			parseFailure.set(e);
+			throw e;
+		    } finally {
+			// a parser failing early must not leave the template
+			// blocked on a full pipe
+			pipe.close();
+		    }
+		}
+	    });
+	} catch (RejectedExecutionException e) {
+	    return null;
+	}
+	try {
+	    Writer writer = newEncodingWriter(markup);
+	    execute(writer, model);
+	    writer.flush();
+	} catch (Exception e) {
+	    // mustache reports the write to the closed pipe as a
+	    // MustacheException, the parser's failure explains it
+	    Exception failure = parseFailure.get();
+	    if (failure != null) {
+		throw failure;
+	    }
+	    parsed.cancel(true);
+	    throw e;
+	} finally {
+	    markup.close();
+	}
+	try {
+	    return parsed.get();
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof Exception) {
+		throw (Exception) e.getCause();
+	    }
+	    throw e;
+	}
+    }
+
+    /**
+     * Create the PDF on the render executor, if any, or else on this thread.
+     */
+    private void layout(final Document doc,
+	    final ServletOutputStream servletOutputStream,
+	    HttpServletResponse response) throws Exception {
+	if (renderExecutor == null) {
+	    createPDF(doc, servletOutputStream);
+	    return;
+	}
+	try {
+	    renderExecutor.render(new Callable<Object>() {
+		public Object call() throws Exception {
+		    createPDF(doc, servletOutputStream);
+		    return null;
+		}
+	    });
+	} catch (RejectedExecutionException e) {
+	    reject(response);
+	}
+    }
 
-	encode(response.getOutputStream(), stringWriter.toString());
+    private void reject(HttpServletResponse response) throws IOException {
+	logger.warn("Rejecting PDF '" + getBeanName() + "', " + renderExecutor);
+	response.setHeader("Retry-After", String.valueOf(retryAfter));
+	response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
     }
 
-    private boolean encode(ServletOutputStream servletOutputStream,
-	    String content) throws Exception {
+    /**
+     * Parse the markup into an xml Document.
+     */
+    protected Document parse(InputSource content) throws Exception {
+	DocumentBuilder documentBuilder = rendererPool.acquireDocumentBuilder();
 	try {
-	    // parse the markup into an xml Document
-	    final Document doc = DocumentBuilderFactory.newInstance()
-		    .newDocumentBuilder()
-		    .parse(new InputSource(new StringReader(content)));
+	    return documentBuilder.parse(content);
+	} finally {
+	    rendererPool.releaseDocumentBuilder(documentBuilder);
+	}
+    }
 
-	    final ITextRenderer renderer = new ITextRenderer();
+    protected void createPDF(Document doc,
+	    ServletOutputStream servletOutputStream) throws Exception {
+	ITextRenderer renderer = rendererPool.acquireRenderer();
+	boolean reusable = false;
+	try {
 	    renderer.setDocument(doc, null);
 	    renderer.layout();
 	    renderer.createPDF(servletOutputStream);
+	    reusable = true;
 	} finally {
-	    servletOutputStream.flush();
+	    rendererPool.releaseRenderer(renderer, reusable);
 	}
-	return true;
     }
 
+    /**
+     * @param streamMarkup
+     *            if true, pipe the markup to the XML parser while the template
+     *            is rendered, otherwise render the whole markup in a buffer
+     *            before parsing it. The default is true, piping needs a parser
+     *            executor.
+     */
+    public void setStreamMarkup(boolean streamMarkup) {
+	this.streamMarkup = streamMarkup;
+    }
+
+    /**
+     * @param parserExecutor
+     *            the bounded pool parsing the piped markup, it rejects the
+     *            markup when all its threads are busy. The default is none,
+     *            the markup is rendered in a buffer.
+     */
+    public void setParserExecutor(ExecutorService parserExecutor) {
+	this.parserExecutor = parserExecutor;
+    }
+
+    /**
+     * @param rendererPool
+     *            the pool of DocumentBuilders and ITextRenderers. The default
+     *            is a pool, shared by all the views without one, of as many
+     *            as the available processors.
+     */
+    public void setRendererPool(PDFRendererPool rendererPool) {
+	this.rendererPool = rendererPool;
+    }
+
+    /**
+     * @param renderExecutor
+     *            the bounded pool the PDFs are laid out on. The default is
+     *            null, the request thread.
+     */
+    public void setRenderExecutor(PDFRenderExecutor renderExecutor) {
+	this.renderExecutor = renderExecutor;
+    }
+
+    /**
+     * @param retryAfter
+     *            the number of seconds a rejected client is told to wait
+     *            before retrying. The default is 5.
+     */
+    public void setRetryAfter(int retryAfter) {
+	this.retryAfter = retryAfter;
+    }
 }
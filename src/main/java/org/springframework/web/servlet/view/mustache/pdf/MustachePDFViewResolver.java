@@ -15,8 +15,16 @@
  */
 package org.springframework.web.servlet.view.mustache.pdf;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.web.servlet.ViewResolver;
+import org.springframework.web.servlet.view.AbstractUrlBasedView;
 import org.springframework.web.servlet.view.mustache.AbstractMustacheViewResolver;
 
 /**
@@ -44,12 +52,46 @@ import org.springframework.web.servlet.view.mustache.AbstractMustacheViewResolve
  * @author kpacha <kpacha666@gmail.com>
  */
 public class MustachePDFViewResolver extends AbstractMustacheViewResolver
-	implements ViewResolver, InitializingBean {
+	implements ViewResolver, InitializingBean, DisposableBean {
+
+    private boolean streamMarkup = true;
+
+    private int rendererPoolSize = Runtime.getRuntime().availableProcessors();
+
+    private PDFRendererPool rendererPool = null;
+
+    private ThreadPoolExecutor parserExecutor = null;
+
+    private String[] fonts = new String[0];
+
+    private int renderThreads = 0;
+
+    private int renderQueueCapacity = 0;
+
+    private int retryAfter = 5;
+
+    private PDFRenderExecutor renderExecutor = null;
+
+    /** True if the render executor was created, not set, by this resolver. */
+    private boolean ownsRenderExecutor = false;
 
     public MustachePDFViewResolver() {
 	setViewClass(MustachePDFView.class);
     }
 
+    @Override
+    protected AbstractUrlBasedView buildView(String viewName) throws Exception {
+	MustachePDFView view = (MustachePDFView) super.buildView(viewName);
+	view.setStreamMarkup(streamMarkup);
+	if (streamMarkup) {
+	    view.setParserExecutor(getParserExecutor());
+	}
+	view.setRendererPool(getRendererPool());
+	view.setRenderExecutor(getRenderExecutor());
+	view.setRetryAfter(retryAfter);
+	return view;
+    }
+
     /**
      * This is verified when the view class is set.
      */
@@ -63,4 +105,144 @@ public class MustachePDFViewResolver extends AbstractMustacheViewResolver
 	return url.replaceAll(".pdf", "");
     }
 
+    /**
+     * @param streamMarkup
+     *            see {@link MustachePDFView#setStreamMarkup(boolean)}, the
+     *            markup is parsed on a pool of 'rendererPoolSize' threads
+     */
+    public void setStreamMarkup(boolean streamMarkup) {
+	this.streamMarkup = streamMarkup;
+    }
+
+    /**
+     * @param rendererPoolSize
+     *            the maximum number of DocumentBuilders, and of ITextRenderers,
+     *            shared by the views of this resolver. The default is the
+     *            number of available processors.
+     */
+    public void setRendererPoolSize(int rendererPoolSize) {
+	this.rendererPoolSize = rendererPoolSize;
+    }
+
+    /**
+     * @param fonts
+     *            the locations of the fonts registered with the renderers of
+     *            the views, relative to the prefix or absolute, e.g.
+     *            'fonts/DejaVuSans.ttf'
+     */
+    public void setFonts(String[] fonts) {
+	this.fonts = fonts;
+    }
+
+    /**
+     * @param rendererPool
+     *            the pool of DocumentBuilders and ITextRenderers of the views,
+     *            e.g. to share it between resolvers. The default is a pool of
+     *            'rendererPoolSize'.
+     */
+    public synchronized void setRendererPool(PDFRendererPool rendererPool) {
+	this.rendererPool = rendererPool;
+    }
+
+    /**
+     * @return the pool of DocumentBuilders and ITextRenderers, with its wait
+     *         metrics
+     */
+    public synchronized PDFRendererPool getRendererPool() {
+	if (rendererPool == null) {
+	    rendererPool = new PDFRendererPool(rendererPoolSize);
+	    rendererPool.setResourceLoader(getTemplateLoader()
+		    .getResourceLoader());
+	    rendererPool.setBaseLocation(getPrefix());
+	    rendererPool.setFonts(fonts);
+	}
+	return rendererPool;
+    }
+
+    /**
+     * @return the threads parsing the piped markup, as many as the
+     *         DocumentBuilders they parse with, beyond that the markup is
+     *         rendered in a buffer
+     */
+    private synchronized ExecutorService getParserExecutor() {
+	if (parserExecutor == null) {
+	    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+		    "mustache-pdf-parser-");
+	    threadFactory.setDaemon(true);
+	    parserExecutor = new ThreadPoolExecutor(rendererPoolSize,
+		    rendererPoolSize, 60L, TimeUnit.SECONDS,
+		    new SynchronousQueue<Runnable>(), threadFactory,
+		    new ThreadPoolExecutor.AbortPolicy());
+	    parserExecutor.allowCoreThreadTimeOut(true);
+	}
+	return parserExecutor;
+    }
+
+    /**
+     * @param renderThreads
+     *            the number of PDFs laid out at once on a dedicated pool. The
+     *            default is 0, PDFs are laid out on the request threads.
+     */
+    public void setRenderThreads(int renderThreads) {
+	this.renderThreads = renderThreads;
+    }
+
+    /**
+     * @param renderQueueCapacity
+     *            the number of PDFs waiting for a render thread before
+     *            further PDFs are rejected with 503 Service Unavailable. The
+     *            default is twice the render threads.
+     */
+    public void setRenderQueueCapacity(int renderQueueCapacity) {
+	this.renderQueueCapacity = renderQueueCapacity;
+    }
+
+    /**
+     * @param retryAfter
+     *            see {@link MustachePDFView#setRetryAfter(int)}
+     */
+    public void setRetryAfter(int retryAfter) {
+	this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @param renderExecutor
+     *            the pool the PDFs are laid out on, e.g. to share it between
+     *            resolvers. The default is a pool of 'renderThreads', if any.
+     */
+    public synchronized void setRenderExecutor(PDFRenderExecutor renderExecutor) {
+	this.renderExecutor = renderExecutor;
+	this.ownsRenderExecutor = false;
+    }
+
+    /**
+     * @return the pool the PDFs are laid out on, with its queue depth and
+     *         render time metrics, or null if they are laid out on the
+     *         request threads
+     */
+    public synchronized PDFRenderExecutor getRenderExecutor() {
+	if (renderExecutor == null && renderThreads > 0) {
+	    renderExecutor = new PDFRenderExecutor(renderThreads,
+		    renderQueueCapacity > 0 ? renderQueueCapacity
+			    : renderThreads * 2);
+	    ownsRenderExecutor = true;
+	}
+	return renderExecutor;
+    }
+
+    /**
+     * Shut down the parser pool and the render pool created by this
+     * resolver, a render pool that was set may be shared and is left running.
+     */
+    @Override
+    public synchronized void destroy() {
+	super.destroy();
+	if (parserExecutor != null) {
+	    parserExecutor.shutdown();
+	}
+	if (renderExecutor != null && ownsRenderExecutor) {
+	    renderExecutor.destroy();
+	}
+    }
+
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.FileCopyUtils;
+import org.xhtmlrenderer.resource.FSEntityResolver;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Resolves the XHTML DTDs and entity sets of the PDF templates without
+ * network access, from the copies bundled with Flying Saucer. Each DTD is
+ * read once per JVM and then served from memory.
+ * 
+ * Any other external entity resolves to an empty document instead of being
+ * fetched.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class OfflineEntityResolver implements EntityResolver {
+
+    private static final Log logger = LogFactory
+	    .getLog(OfflineEntityResolver.class);
+
+    private static final OfflineEntityResolver instance = new OfflineEntityResolver();
+
+    private final EntityResolver bundledEntities = FSEntityResolver.instance();
+
+    /** The entities read, by public or system id. */
+    private final ConcurrentMap<String, byte[]> entities = new ConcurrentHashMap<String, byte[]>();
+
+    public static OfflineEntityResolver getInstance() {
+	return instance;
+    }
+
+    public InputSource resolveEntity(String publicId, String systemId)
+	    throws SAXException, IOException {
+	String key = publicId != null ? publicId : String.valueOf(systemId);
+	byte[] entity = entities.get(key);
+	if (entity == null) {
+	    entity = readBundledEntity(publicId, systemId);
+	    if (entity == null) {
+		logger.debug("Not resolving external entity: " + publicId
+			+ " " + systemId);
+		return emptyEntity(publicId, systemId);
+	    }
+	    entities.putIfAbsent(key, entity);
+	}
+	InputSource source = new InputSource(new ByteArrayInputStream(entity));
+	source.setPublicId(publicId);
+	source.setSystemId(systemId);
+	return source;
+    }
+
+    private byte[] readBundledEntity(String publicId, String systemId)
+	    throws SAXException, IOException {
+	InputSource source = bundledEntities.resolveEntity(publicId, systemId);
+	if (source == null || source.getByteStream() == null) {
+	    return null;
+	}
+	InputStream in = source.getByteStream();
+	return FileCopyUtils.copyToByteArray(in);
+    }
+
+    private InputSource emptyEntity(String publicId, String systemId) {
+	InputSource source = new InputSource(new StringReader(""));
+	source.setPublicId(publicId);
+	source.setSystemId(systemId);
+	return source;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A bounded pool of threads laying out the PDFs, so that a burst of PDF
+ * requests can not take every container thread. Once 'threads' PDFs are
+ * being laid out and 'queueCapacity' more are waiting, further PDFs are
+ * rejected instead of queued, see {@link MustachePDFView}.
+ * 
+ * A PDF is admitted, holding one of 'threads' + 'queueCapacity' permits,
+ * before its template is rendered and until it is laid out, so concurrent
+ * requests can not all pass admission and then be rejected by the queue.
+ * 
+ * The queue depth, the number of rejections and the time spent waiting and
+ * laying out help size the pool.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PDFRenderExecutor implements DisposableBean {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Semaphore admissions;
+
+    private final AtomicLong renderCount = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+    private final AtomicLong queueNanos = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param threads
+     *            the number of PDFs laid out at once
+     * @param queueCapacity
+     *            the number of PDFs waiting for a thread before further PDFs
+     *            are rejected, at least 1
+     */
+    public PDFRenderExecutor(int threads, int queueCapacity) {
+	CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+		"mustache-pdf-render-");
+	threadFactory.setDaemon(true);
+	executor = new ThreadPoolExecutor(threads, threads, 0L,
+		TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+			queueCapacity), threadFactory,
+		new ThreadPoolExecutor.AbortPolicy());
+	admissions = new Semaphore(threads + queueCapacity);
+    }
+
+    /**
+     * Admit a PDF, it must be released once laid out, even if it failed.
+     * 
+     * @return false, counting a rejection, if no more PDFs can be queued
+     */
+    public boolean admit() {
+	if (!admissions.tryAcquire()) {
+	    rejectedCount.incrementAndGet();
+	    return false;
+	}
+	return true;
+    }
+
+    /**
+     * Release the admission of a PDF laid out, or failed.
+     */
+    public void release() {
+	admissions.release();
+    }
+
+    /**
+     * Run the task on the pool and wait for its result.
+     * 
+     * @throws RejectedExecutionException
+     *             if the queue is full
+     */
+    public <T> T render(final Callable<T> task) throws Exception {
+	final long queued = System.nanoTime();
+	Future<T> result;
+	try {
+	    result = executor.submit(new Callable<T>() {
+		public T call() throws Exception {
+		    long start = System.nanoTime();
+		    queueNanos.addAndGet(start - queued);
+		    try {
+			return task.call();
+		    } finally {
+			renderNanos.addAndGet(System.nanoTime() - start);
+			renderCount.incrementAndGet();
+		    }
+		}
+	    });
+	} catch (RejectedExecutionException e) {
+	    rejectedCount.incrementAndGet();
+	    throw e;
+	}
+	try {
+	    return result.get();
+	} catch (InterruptedException e) {
+	    result.cancel(true);
+	    throw e;
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof Exception) {
+		throw (Exception) e.getCause();
+	    }
+	    throw e;
+	}
+    }
+
+    /**
+     * @return the number of PDFs waiting for a thread
+     */
+    public int getQueueDepth() {
+	return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of PDFs being laid out
+     */
+    public int getActiveCount() {
+	return executor.getActiveCount();
+    }
+
+    public long getRenderCount() {
+	return renderCount.get();
+    }
+
+    /**
+     * @return the total number of milliseconds spent laying out PDFs
+     */
+    public long getRenderMillis() {
+	return TimeUnit.NANOSECONDS.toMillis(renderNanos.get());
+    }
+
+    /**
+     * @return the total number of milliseconds PDFs waited for a thread
+     */
+    public long getQueueMillis() {
+	return TimeUnit.NANOSECONDS.toMillis(queueNanos.get());
+    }
+
+    public long getRejectedCount() {
+	return rejectedCount.get();
+    }
+
+    public void destroy() {
+	executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+	return "PDFRenderExecutor [active=" + getActiveCount() + ", queued="
+		+ getQueueDepth() + ", rendered=" + getRenderCount()
+		+ ", rejected=" + getRejectedCount() + ", renderTime="
+		+ getRenderMillis() + "ms, queueTime=" + getQueueMillis()
+		+ "ms]";
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.springframework.core.io.ResourceLoader;
+import org.xhtmlrenderer.context.StyleReference;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import com.lowagie.text.pdf.BaseFont;
+
+/**
+ * Bounded pools of the DocumentBuilders parsing the markup and of the
+ * ITextRenderers laying out the PDFs, so that the parser factory lookup and
+ * the renderer's font and layout setup are not repeated for every PDF.
+ * 
+ * At most 'size' instances of each are created, once all are in use the next
+ * request waits for one to be released. The number of waits and the time
+ * spent waiting help size the pool.
+ * 
+ * The DocumentBuilders resolve the XHTML DTDs offline with the
+ * {@link OfflineEntityResolver}.
+ * 
+ * With a resource loader, the ITextRenderers load stylesheets, images and
+ * fonts with a {@link ResourceLoaderUserAgent} and register the configured
+ * fonts once, when they are created.
+ * 
+ * A released ITextRenderer drops the document it laid out, its box tree, its
+ * PDF writer and the outline, link targets and imported PDFs of its output
+ * device, so an idle renderer holds no page and the next PDF starts from a
+ * clean state. Flying Saucer has no API for this, the fields are reset by
+ * reflection; where they are missing the renderers are replaced instead of
+ * reused.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PDFRendererPool {
+
+    /** The fields holding the last document of an ITextRenderer. */
+    private static final Field[] RENDERER_DOCUMENT_FIELDS = findFields(
+	    ITextRenderer.class, "_doc", "_root", "_pdfDoc", "_writer");
+
+    /** Recreated by the output device for the next PDF when null. */
+    private static final Field[] OUTPUT_DEVICE_DOCUMENT_FIELDS = findFields(
+	    ITextOutputDevice.class, "_currentPage", "_writer", "_root",
+	    "_defaultDestination", "_linkTargetAreas");
+
+    /** Only created with the output device, appended to by every PDF. */
+    private static final Field[] OUTPUT_DEVICE_OUTLINE_FIELDS = findFields(
+	    ITextOutputDevice.class, "_bookmarks", "_readerCache",
+	    "_nextFormFieldIndex");
+
+    private static final Field[] STYLE_DOCUMENT_FIELDS = findFields(
+	    StyleReference.class, "_doc", "_matcher");
+
+    private final DocumentBuilderFactory documentBuilderFactory;
+
+    private final Pool<DocumentBuilder> documentBuilders;
+
+    private final Pool<ITextRenderer> renderers;
+
+    private ResourceLoader resourceLoader = null;
+
+    private String baseLocation = "";
+
+    private PDFResourceCache resourceCache = PDFResourceCache
+	    .getSharedInstance();
+
+    private String[] fonts = new String[0];
+
+    /**
+     * @param size
+     *            the maximum number of DocumentBuilders, and of
+     *            ITextRenderers, created
+     */
+    public PDFRendererPool(int size) {
+	documentBuilderFactory = DocumentBuilderFactory.newInstance();
+	documentBuilders = new Pool<DocumentBuilder>(size) {
+	    @Override
+	    protected DocumentBuilder create() throws Exception {
+		// a DocumentBuilderFactory is not thread safe
+		synchronized (documentBuilderFactory) {
+		    return newDocumentBuilder(documentBuilderFactory);
+		}
+	    }
+	};
+	renderers = new Pool<ITextRenderer>(size) {
+	    @Override
+	    protected ITextRenderer create() throws Exception {
+		return newRenderer();
+	    }
+	};
+    }
+
+    protected DocumentBuilder newDocumentBuilder(
+	    DocumentBuilderFactory documentBuilderFactory) throws Exception {
+	DocumentBuilder documentBuilder = documentBuilderFactory
+		.newDocumentBuilder();
+	documentBuilder.setEntityResolver(OfflineEntityResolver.getInstance());
+	return documentBuilder;
+    }
+
+    protected ITextRenderer newRenderer() throws Exception {
+	ITextRenderer renderer = new ITextRenderer();
+	if (resourceLoader != null) {
+	    ResourceLoaderUserAgent userAgent = new ResourceLoaderUserAgent(
+		    renderer.getOutputDevice(), resourceLoader, baseLocation,
+		    resourceCache);
+	    userAgent.setSharedContext(renderer.getSharedContext());
+	    renderer.getSharedContext().setUserAgentCallback(userAgent);
+	    for (String font : fonts) {
+		String uri = userAgent.resolveURI(font);
+		if (uri == null) {
+		    throw new IllegalArgumentException("Font not found: " + font);
+		}
+		renderer.getFontResolver().addFont(uri, BaseFont.IDENTITY_H,
+			BaseFont.EMBEDDED);
+	    }
+	}
+	return renderer;
+    }
+
+    /**
+     * @param resourceLoader
+     *            the resource loader of the stylesheets, images and fonts.
+     *            The default is null, Flying Saucer's own user agent.
+     */
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+	this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * @param baseLocation
+     *            the location relative resources are resolved against,
+     *            usually the template prefix
+     */
+    public void setBaseLocation(String baseLocation) {
+	this.baseLocation = baseLocation;
+    }
+
+    /**
+     * @param resourceCache
+     *            the cache of the resources read. The default is the cache
+     *            shared by the process.
+     */
+    public void setResourceCache(PDFResourceCache resourceCache) {
+	this.resourceCache = resourceCache;
+    }
+
+    /**
+     * @param fonts
+     *            the locations of the fonts registered with every renderer,
+     *            relative to the base location or absolute
+     */
+    public void setFonts(String[] fonts) {
+	this.fonts = fonts;
+    }
+
+    public DocumentBuilder acquireDocumentBuilder() throws Exception {
+	return documentBuilders.acquire();
+    }
+
+    /**
+     * Reset the DocumentBuilder and return it to the pool.
+     */
+    public void releaseDocumentBuilder(DocumentBuilder documentBuilder) {
+	documentBuilder.reset();
+	// reset does not guarantee the entity resolver is kept
+	documentBuilder.setEntityResolver(OfflineEntityResolver.getInstance());
+	documentBuilders.release(documentBuilder);
+    }
+
+    public ITextRenderer acquireRenderer() throws Exception {
+	return renderers.acquire();
+    }
+
+    /**
+     * Drop the document of the renderer and return it to the pool.
+     * 
+     * @param reusable
+     *            false if the renderer failed and must be discarded
+     */
+    public void releaseRenderer(ITextRenderer renderer, boolean reusable) {
+	if (reusable && clearDocument(renderer)) {
+	    renderers.release(renderer);
+	} else {
+	    renderers.discard();
+	}
+    }
+
+    /**
+     * @return false if the document could not be cleared, the renderer must
+     *         not be reused
+     */
+    private static boolean clearDocument(ITextRenderer renderer) {
+	if (RENDERER_DOCUMENT_FIELDS == null
+		|| OUTPUT_DEVICE_DOCUMENT_FIELDS == null
+		|| OUTPUT_DEVICE_OUTLINE_FIELDS == null
+		|| STYLE_DOCUMENT_FIELDS == null) {
+	    return false;
+	}
+	try {
+	    // the styles and ids cached by element
+	    renderer.getSharedContext().reset();
+	    clearFields(renderer, RENDERER_DOCUMENT_FIELDS);
+	    ITextOutputDevice outputDevice = renderer.getOutputDevice();
+	    clearFields(outputDevice, OUTPUT_DEVICE_DOCUMENT_FIELDS);
+	    OUTPUT_DEVICE_OUTLINE_FIELDS[0].set(outputDevice,
+		    new ArrayList<Object>());
+	    ((Map<?, ?>) OUTPUT_DEVICE_OUTLINE_FIELDS[1].get(outputDevice))
+		    .clear();
+	    OUTPUT_DEVICE_OUTLINE_FIELDS[2].setInt(outputDevice, 0);
+	    clearFields(renderer.getSharedContext().getCss(),
+		    STYLE_DOCUMENT_FIELDS);
+	    return true;
+	} catch (Exception e) {
+	    return false;
+	}
+    }
+
+    private static void clearFields(Object target, Field[] fields)
+	    throws IllegalAccessException {
+	if (target == null) {
+	    return;
+	}
+	for (Field field : fields) {
+	    field.set(target, null);
+	}
+    }
+
+    /**
+     * @return the accessible fields, or null if one of them is missing
+     */
+    private static Field[] findFields(Class<?> type, String... names) {
+	Field[] fields = new Field[names.length];
+	try {
+	    for (int i = 0; i < names.length; i++) {
+		fields[i] = type.getDeclaredField(names[i]);
+		fields[i].setAccessible(true);
+	    }
+	} catch (Exception e) {
+	    return null;
+	}
+	return fields;
+    }
+
+    /**
+     * @return the number of times a PDF waited for a DocumentBuilder or an
+     *         ITextRenderer
+     */
+    public long getWaitCount() {
+	return documentBuilders.waitCount.get() + renderers.waitCount.get();
+    }
+
+    /**
+     * @return the total number of milliseconds PDFs waited for a
+     *         DocumentBuilder or an ITextRenderer
+     */
+    public long getWaitMillis() {
+	return TimeUnit.NANOSECONDS.toMillis(documentBuilders.waitNanos.get()
+		+ renderers.waitNanos.get());
+    }
+
+    public int getRendererCount() {
+	return renderers.created.get();
+    }
+
+    public int getIdleRendererCount() {
+	return renderers.idle.size();
+    }
+
+    @Override
+    public String toString() {
+	return "PDFRendererPool [renderers=" + renderers.created.get()
+		+ ", idle=" + renderers.idle.size() + ", waits="
+		+ getWaitCount() + ", waited=" + getWaitMillis() + "ms]";
+    }
+
+    private static abstract class Pool<T> {
+
+	private final int size;
+	private final BlockingQueue<T> idle = new LinkedBlockingQueue<T>();
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	Pool(int size) {
+	    this.size = size;
+	}
+
+	protected abstract T create() throws Exception;
+
+	T acquire() throws Exception {
+	    T item = idle.poll();
+	    if (item != null) {
+		return item;
+	    }
+	    if (created.incrementAndGet() <= size) {
+		try {
+		    return create();
+		} catch (Exception e) {
+		    created.decrementAndGet();
+		    throw e;
+		}
+	    }
+	    created.decrementAndGet();
+	    long start = System.nanoTime();
+	    item = idle.take();
+	    waitCount.incrementAndGet();
+	    waitNanos.addAndGet(System.nanoTime() - start);
+	    return item;
+	}
+
+	void release(T item) {
+	    idle.offer(item);
+	}
+
+	/**
+	 * Replace a broken item, so that a request waiting for it is not
+	 * left waiting.
+	 */
+	void discard() {
+	    try {
+		idle.offer(create());
+	    } catch (Exception e) {
+		created.decrementAndGet();
+	    }
+	}
+    }
+}
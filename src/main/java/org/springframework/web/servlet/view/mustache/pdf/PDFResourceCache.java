@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.FileCopyUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * A bounded, least recently used cache of the stylesheets, images and fonts
+ * read by the PDF views, see {@link ResourceLoaderUserAgent}. By default one
+ * cache is shared by all the PDF views of the process.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PDFResourceCache {
+
+    private static final PDFResourceCache sharedInstance = new PDFResourceCache();
+
+    private static final int MAX_LOCATIONS = 1000;
+
+    private long maxSize = 32 * 1024 * 1024;
+
+    private volatile Cache<String, byte[]> resources = build();
+
+    /** The URIs the relative locations resolved to, absent if not found. */
+    private final Cache<String, Optional<String>> locations = CacheBuilder
+	    .newBuilder().maximumSize(MAX_LOCATIONS).build();
+
+    /**
+     * @return the cache shared by the PDF views by default
+     */
+    public static PDFResourceCache getSharedInstance() {
+	return sharedInstance;
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum size, in bytes, of all the cached resources. The
+     *            default is 32MB.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+	this.maxSize = maxSize;
+	Cache<String, byte[]> previous = resources;
+	resources = build();
+	resources.asMap().putAll(previous.asMap());
+    }
+
+    /**
+     * @return the URI of the resource at the location, or null if it does not
+     *         exist
+     */
+    public String resolve(ResourceLoader resourceLoader, String location)
+	    throws IOException {
+	Optional<String> uri = locations.getIfPresent(location);
+	if (uri == null) {
+	    Resource resource = resourceLoader.getResource(location);
+	    uri = resource.exists() ? Optional.of(resource.getURL()
+		    .toExternalForm()) : Optional.<String> absent();
+	    locations.put(location, uri);
+	}
+	return uri.orNull();
+    }
+
+    /**
+     * @return the content of the resource or null if it does not exist
+     */
+    public byte[] getResource(ResourceLoader resourceLoader, String uri)
+	    throws IOException {
+	byte[] content = resources.getIfPresent(uri);
+	if (content != null) {
+	    return content;
+	}
+	Resource resource = resourceLoader.getResource(uri);
+	if (!resource.exists()) {
+	    return null;
+	}
+	InputStream in = resource.getInputStream();
+	content = FileCopyUtils.copyToByteArray(in);
+	if (content.length <= maxSize) {
+	    resources.put(uri, content);
+	}
+	return content;
+    }
+
+    /**
+     * A single segment, so that the maximum size applies to the whole cache
+     * rather than to each segment, the lookups take no lock anyway.
+     */
+    private Cache<String, byte[]> build() {
+	return CacheBuilder.newBuilder().concurrencyLevel(1)
+		.maximumWeight(maxSize).weigher(new Weigher<String, byte[]>() {
+		    @Override
+		    public int weigh(String uri, byte[] content) {
+			return content.length;
+		    }
+		}).build();
+    }
+
+    public void clear() {
+	resources.invalidateAll();
+	locations.invalidateAll();
+    }
+
+    public int getEntryCount() {
+	return (int) resources.size();
+    }
+
+    /**
+     * @return the size, in bytes, of all the cached resources
+     */
+    public long getSize() {
+	long size = 0;
+	for (byte[] content : resources.asMap().values()) {
+	    size += content.length;
+	}
+	return size;
+    }
+
+    public long getHitCount() {
+	return resources.stats().hitCount();
+    }
+
+    public long getMissCount() {
+	return resources.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+	return resources.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+	return "PDFResourceCache [entries=" + getEntryCount() + ", size="
+		+ getSize() + ", hits=" + getHitCount() + ", misses="
+		+ getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.ResourceLoader;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextUserAgent;
+
+/**
+ * A Flying Saucer user agent loading the stylesheets, images and fonts of
+ * the PDF templates with a Spring ResourceLoader, usually the one of the
+ * MustacheTemplateLoader. Relative locations are resolved against the
+ * template prefix, e.g. with the prefix '/WEB-INF/views/':
+ * 
+ * <pre>
+ *   &lt;link rel="stylesheet" href="css/invoice.css" /&gt;
+ * </pre>
+ * 
+ * loads '/WEB-INF/views/css/invoice.css'. The content read is kept in a
+ * {@link PDFResourceCache}.
+ * 
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class ResourceLoaderUserAgent extends ITextUserAgent {
+
+    private static final Log logger = LogFactory
+	    .getLog(ResourceLoaderUserAgent.class);
+
+    private final ResourceLoader resourceLoader;
+    private final String baseLocation;
+    private final PDFResourceCache resourceCache;
+
+    /**
+     * @param baseLocation
+     *            the location relative locations are resolved against, e.g.
+     *            the template prefix
+     */
+    public ResourceLoaderUserAgent(ITextOutputDevice outputDevice,
+	    ResourceLoader resourceLoader, String baseLocation,
+	    PDFResourceCache resourceCache) {
+	super(outputDevice);
+	this.resourceLoader = resourceLoader;
+	this.baseLocation = baseLocation != null ? baseLocation : "";
+	this.resourceCache = resourceCache;
+    }
+
+    /**
+     * @return the URL of the resource, so that Flying Saucer can tell its
+     *         type, or null if it does not exist
+     */
+    @Override
+    public String resolveURI(String uri) {
+	if (uri == null) {
+	    return null;
+	}
+	String location = uri;
+	if (!uri.startsWith("/") && uri.indexOf(':') < 0) {
+	    location = baseLocation + uri;
+	}
+	try {
+	    return resourceCache.resolve(resourceLoader, location);
+	} catch (IOException e) {
+	    logger.warn("Failed to resolve " + location, e);
+	    return null;
+	}
+    }
+
+    @Override
+    protected InputStream resolveAndOpenStream(String uri) {
+	String resolved = resolveURI(uri);
+	if (resolved == null) {
+	    return null;
+	}
+	try {
+	    byte[] content = resourceCache.getResource(resourceLoader, resolved);
+	    return content != null ? new ByteArrayInputStream(content) : null;
+	} catch (IOException e) {
+	    logger.warn("Failed to read " + resolved, e);
+	    return null;
+	}
+    }
+}
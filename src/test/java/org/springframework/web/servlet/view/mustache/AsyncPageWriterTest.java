@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.States;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+@RunWith(JMock.class)
+public class AsyncPageWriterTest {
+
+	private final Mockery context = new Mockery() {
+		{
+			setImposteriser(ClassImposteriser.INSTANCE);
+		}
+	};
+
+	private final AsyncContext asyncContext = context.mock(AsyncContext.class);
+	private final ServletOutputStream out = context.mock(ServletOutputStream.class);
+	private final byte[] page = new byte[AsyncPageWriter.CHUNK_SIZE + 1];
+
+	@Test
+	public void writesThePageInChunksAndCompletes() throws Exception {
+		context.checking(new Expectations() {
+			{
+				allowing(out).isReady();
+				will(returnValue(true));
+				oneOf(out).write(page, 0, AsyncPageWriter.CHUNK_SIZE);
+				oneOf(out).write(page, AsyncPageWriter.CHUNK_SIZE, 1);
+				oneOf(asyncContext).complete();
+			}
+		});
+
+		new AsyncPageWriter(asyncContext, out, page).onWritePossible();
+	}
+
+	@Test
+	public void resumesWritingWhenTheStreamIsReadyAgain() throws Exception {
+		final States stream = context.states("stream").startsAs("ready");
+
+		context.checking(new Expectations() {
+			{
+				allowing(out).isReady();
+				when(stream.is("ready"));
+				will(returnValue(true));
+				allowing(out).isReady();
+				when(stream.is("blocked"));
+				will(returnValue(false));
+				oneOf(out).write(page, 0, AsyncPageWriter.CHUNK_SIZE);
+				then(stream.is("blocked"));
+				oneOf(out).write(page, AsyncPageWriter.CHUNK_SIZE, 1);
+				oneOf(asyncContext).complete();
+			}
+		});
+
+		AsyncPageWriter writer = new AsyncPageWriter(asyncContext, out, page);
+		writer.onWritePossible();
+		stream.become("ready");
+		writer.onWritePossible();
+	}
+}
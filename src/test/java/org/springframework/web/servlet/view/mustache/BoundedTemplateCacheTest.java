@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class BoundedTemplateCacheTest {
+
+	private BoundedTemplateCache cache;
+
+	@Before
+	public void setUp() {
+		cache = new BoundedTemplateCache();
+		cache.setMaxEntries(2);
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedTemplate() {
+		put("a", 1);
+		put("b", 1);
+		cache.get("a");
+		put("c", 1);
+
+		assertThat(cache.get("a"), notNullValue());
+		assertThat(cache.get("b"), nullValue());
+		assertThat(cache.get("c"), notNullValue());
+		assertThat(cache.getEvictionCount(), equalTo(1L));
+	}
+
+	@Test
+	public void evictsTemplatesToStayWithinTheMaximumSize() {
+		cache.setMaxEntries(0);
+		cache.setMaxSize(100);
+		put("a", 60);
+		put("b", 30);
+		put("c", 30);
+
+		assertThat(cache.get("a"), nullValue());
+		assertThat(cache.getEntryCount(), equalTo(2));
+		assertThat(cache.getSize(), equalTo(60L));
+	}
+
+	@Test
+	public void notifiesTheEvictionListener() {
+		final List<String> evicted = new ArrayList<String>();
+		cache.setEvictionListener(new TemplateCache.EvictionListener() {
+			public void evicted(String name) {
+				evicted.add(name);
+			}
+		});
+		put("a", 1);
+		put("b", 1);
+		put("c", 1);
+		cache.remove("b");
+
+		assertThat(evicted, equalTo(Arrays.asList("a")));
+	}
+
+	@Test
+	public void countsHitsAndMisses() {
+		put("a", 1);
+		cache.get("a");
+		cache.get("b");
+
+		assertThat(cache.getHitCount(), equalTo(1L));
+		assertThat(cache.getMissCount(), equalTo(1L));
+	}
+
+	private void put(String name, long size) {
+		CachedTemplate template = new CachedTemplate(name);
+		template.addSize(size);
+		cache.put(name, template);
+	}
+}
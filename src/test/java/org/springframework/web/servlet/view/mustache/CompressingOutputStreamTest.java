@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class CompressingOutputStreamTest {
+
+	private static final byte[] CONTENT = "<h1>test</h1><h1>test</h1><h1>test</h1>".getBytes();
+
+	private final DeflaterPool pool = new DeflaterPool(6, 1);
+
+	@Test
+	public void compressesToGzip() throws Exception {
+		byte[] compressed = compress(CompressingOutputStream.GZIP);
+
+		assertThat(inflate(new GZIPInputStream(new ByteArrayInputStream(compressed))), equalTo(CONTENT));
+	}
+
+	@Test
+	public void compressesToDeflate() throws Exception {
+		byte[] compressed = compress(CompressingOutputStream.DEFLATE);
+
+		assertThat(inflate(new InflaterInputStream(new ByteArrayInputStream(compressed))), equalTo(CONTENT));
+	}
+
+	@Test
+	public void reusesThePooledDeflaters() throws Exception {
+		compress(CompressingOutputStream.GZIP);
+		byte[] compressed = compress(CompressingOutputStream.GZIP);
+
+		assertThat(inflate(new GZIPInputStream(new ByteArrayInputStream(compressed))), equalTo(CONTENT));
+	}
+
+	@Test
+	public void negotiatesTheContentEncoding() {
+		assertThat(ContentEncodings.negotiate("deflate, gzip;q=0.5"), equalTo("gzip"));
+		assertThat(ContentEncodings.negotiate("deflate, gzip;q=0"), equalTo("deflate"));
+		assertThat(ContentEncodings.negotiate("identity"), nullValue());
+		assertThat(ContentEncodings.negotiate(null), nullValue());
+	}
+
+	private byte[] compress(String contentEncoding) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressingOutputStream compressed = new CompressingOutputStream(out, pool, contentEncoding);
+		try {
+			compressed.write(CONTENT);
+			compressed.finish();
+		} finally {
+			compressed.release();
+		}
+		return out.toByteArray();
+	}
+
+	private byte[] inflate(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class FlushingWriterTest {
+
+	private int flushes = 0;
+
+	private final StringWriter out = new StringWriter() {
+		@Override
+		public void flush() {
+			flushes++;
+		}
+	};
+
+	@Test
+	public void flushesEveryTimeTheThresholdIsReached() throws Exception {
+		FlushingWriter writer = new FlushingWriter(out, 10);
+
+		writer.write("12345");
+		assertThat(flushes, equalTo(0));
+		writer.write("67890");
+		assertThat(flushes, equalTo(1));
+		writer.write("1234567890123");
+		assertThat(flushes, equalTo(2));
+
+		assertThat(out.toString(), equalTo("12345678901234567890123"));
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+@RunWith(JMock.class)
+public class ModelScopeTest {
+
+	private final Mockery context = new Mockery() {
+		{
+			setImposteriser(ClassImposteriser.INSTANCE);
+		}
+	};
+
+	private final HttpServletRequest request = context.mock(HttpServletRequest.class);
+
+	private final Map<String, Object> model = new HashMap<String, Object>();
+	private final Map<String, Object> staticAttributes = new HashMap<String, Object>();
+
+	private ModelScope scope;
+
+	@Before
+	public void setUp() {
+		model.put("title", "model title");
+		staticAttributes.put("title", "static title");
+		staticAttributes.put("footer", "static footer");
+
+		scope = new ModelScope(model, null, staticAttributes, request, null, null, true, false,
+				Collections.<String> emptySet());
+	}
+
+	@Test
+	public void looksUpTheModelBeforeTheStaticAttributes() {
+		assertThat(scope.get("title"), equalTo((Object) "model title"));
+		assertThat(scope.get("footer"), equalTo((Object) "static footer"));
+	}
+
+	@Test
+	public void looksUpTheExposedRequestAttributesLast() {
+		context.checking(new Expectations() {
+			{
+				oneOf(request).getAttribute("user");
+				will(returnValue("request user"));
+				oneOf(request).getAttribute("missing");
+				will(returnValue(null));
+			}
+		});
+
+		assertThat(scope.get("user"), equalTo((Object) "request user"));
+		assertThat(scope.get("missing"), nullValue());
+	}
+
+	@Test
+	public void putsValuesWithoutChangingTheModel() {
+		scope.put("title", "rendering title");
+
+		assertThat(scope.get("title"), equalTo((Object) "rendering title"));
+		assertThat(model.get("title"), equalTo((Object) "model title"));
+	}
+
+	@Test
+	public void entriesEqualTheEntriesOfAMapWithTheSameValues() {
+		context.checking(new Expectations() {
+			{
+				oneOf(request).getAttributeNames();
+				will(returnValue(Collections.enumeration(Collections.<String> emptyList())));
+			}
+		});
+
+		Map<String, Object> copy = new HashMap<String, Object>(scope);
+		Map.Entry<String, Object> title = new SimpleEntry<String, Object>("title", "model title");
+
+		assertThat(scope.entrySet().contains(title), equalTo(true));
+		assertThat(scope.equals(copy), equalTo(true));
+		assertThat(copy.equals(scope), equalTo(true));
+		assertThat(scope.hashCode(), equalTo(copy.hashCode()));
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.web.servlet.LocaleResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Iteration;
+import com.github.mustachejava.Mustache;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+@RunWith(JMock.class)
+public class MustacheFragmentCacheInterceptorTest {
+
+	private final Mockery context = new Mockery() {
+		{
+			setImposteriser(ClassImposteriser.INSTANCE);
+		}
+	};
+
+	private final LocaleResolver localeResolver = context.mock(LocaleResolver.class);
+	private final HttpServletResponse UNUSED_RESPONSE = null;
+	private int requests = 0;
+
+	private final DefaultMustacheFactory mustacheFactory = new DefaultMustacheFactory() {
+		{
+			setObjectHandler(new FragmentCacheObjectHandler());
+		}
+	};
+	private final MustacheFragmentCacheInterceptor interceptor = new MustacheFragmentCacheInterceptor(localeResolver);
+
+	@Test
+	public void reusesTheRenderedSection() throws Exception {
+		Mustache template = mustacheFactory.compile(new StringReader("-{{#cache.name}}{{name}}{{/cache.name}}-"),
+				"cache-test");
+
+		assertThat(render(template, "first"), equalTo("-first-"));
+		assertThat(render(template, "second"), equalTo("-first-"));
+		assertThat(interceptor.getFragmentCache().getHitCount(), equalTo(1L));
+	}
+
+	@Test
+	public void doesNotRunACachedSection() throws Exception {
+		Mustache template = mustacheFactory.compile(
+				new StringReader("-{{#cache.counter}}{{counter.next}}{{/cache.counter}}-"), "cache-test");
+		Counter counter = new Counter();
+
+		assertThat(render(template, "counter", counter), equalTo("-1-"));
+		assertThat(render(template, "counter", counter), equalTo("-1-"));
+		assertThat(counter.count, equalTo(1));
+	}
+
+	@Test
+	public void rendersASectionInALoopWithTheLoopItem() throws Exception {
+		Mustache template = mustacheFactory.compile(
+				new StringReader("-{{#items}}{{#cache.item}}{{name}}{{/cache.item}}{{/items}}-"), "cache-test");
+
+		ModelAndView mav = postHandle("top");
+		mav.addObject("items", Collections.singletonList(Collections.singletonMap("name", "item")));
+
+		assertThat(execute(template, mav), equalTo("-item-"));
+	}
+
+	@Test
+	public void cachesSectionsByKey() throws Exception {
+		Mustache template = mustacheFactory.compile(
+				new StringReader("-{{#cache.a}}a{{name}}{{/cache.a}}{{#cache.b}}b{{name}}{{/cache.b}}-"), "cache-test");
+
+		assertThat(render(template, "1"), equalTo("-a1b1-"));
+		assertThat(render(template, "2"), equalTo("-a1b1-"));
+		assertThat(interceptor.getFragmentCache().getHitCount(), equalTo(2L));
+	}
+
+	@Test
+	public void runsTheSectionInTheCurrentScopeOnlyOnAMiss() throws Exception {
+		final Iteration section = context.mock(Iteration.class);
+		final Object[] scopes = { Collections.singletonMap("name", "item") };
+
+		context.checking(new Expectations() {
+			{
+				oneOf(section).next(with(any(Writer.class)), with(any(Object.class)), with(same(scopes)));
+				will(new CustomAction("render the section") {
+					public Object invoke(Invocation invocation) throws Throwable {
+						Writer writer = (Writer) invocation.getParameter(0);
+						writer.write("item");
+						return writer;
+					}
+				});
+			}
+		});
+
+		FragmentCacheObjectHandler objectHandler = new FragmentCacheObjectHandler();
+		StringWriter first = new StringWriter();
+		objectHandler.iterate(section, first, cachedSection("item"), scopes);
+		StringWriter second = new StringWriter();
+		objectHandler.iterate(section, second, cachedSection("item"), scopes);
+
+		assertThat(first.toString(), equalTo("item"));
+		assertThat(second.toString(), equalTo("item"));
+	}
+
+	@Test
+	public void rendersTheSectionAgainOnceCleared() throws Exception {
+		Mustache template = mustacheFactory.compile(new StringReader("-{{#cache.name}}{{name}}{{/cache.name}}-"),
+				"cache-test");
+
+		render(template, "first");
+		interceptor.getFragmentCache().clear();
+
+		assertThat(render(template, "second"), equalTo("-second-"));
+	}
+
+	@Test
+	public void resolvesThePartialsOfTheSectionLikeTheView() throws Exception {
+		MustacheTemplateLoader templateLoader = new MustacheTemplateLoader();
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+		templateLoader.setPrefix("WEB-INF/views/");
+
+		Mustache template = templateLoader.compile(
+				new StringReader("-{{#cache.partial}}{{> test-partial}}{{/cache.partial}}-"), "WEB-INF/views/test.html");
+
+		assertThat(render(template, "first"), equalTo("-<h2>partial</h2>-"));
+		assertThat(render(template, "second"), equalTo("-<h2>partial</h2>-"));
+		assertThat(interceptor.getFragmentCache().getHitCount(), equalTo(1L));
+	}
+
+	@Test
+	public void writesCachedTextContainingMustacheTagsAsIs() throws Exception {
+		Mustache template = mustacheFactory.compile(new StringReader("-{{#cache.name}}{{name}}{{/cache.name}}-"),
+				"cache-test");
+
+		assertThat(render(template, "{{first}}"), equalTo("-{{first}}-"));
+		assertThat(render(template, "second"), equalTo("-{{first}}-"));
+		assertThat(interceptor.getFragmentCache().getHitCount(), equalTo(1L));
+	}
+
+	private String render(Mustache template, String name) throws Exception {
+		return render(template, "name", name);
+	}
+
+	private String render(Mustache template, String attribute, Object value) throws Exception {
+		ModelAndView mav = postHandle(String.valueOf(value));
+		mav.addObject(attribute, value);
+		return execute(template, mav);
+	}
+
+	private ModelAndView postHandle(String name) throws Exception {
+		final HttpServletRequest request = context.mock(HttpServletRequest.class, "request-" + name + "-"
+				+ requests++);
+
+		context.checking(new Expectations() {
+			{
+				oneOf(localeResolver).resolveLocale(request);
+				will(returnValue(Locale.ENGLISH));
+			}
+		});
+
+		ModelAndView mav = new ModelAndView("test");
+		mav.addObject("name", name);
+		interceptor.postHandle(request, UNUSED_RESPONSE, null, mav);
+		return mav;
+	}
+
+	private Object cachedSection(String key) throws Exception {
+		ModelAndView mav = postHandle(key);
+		return ((Map<?, ?>) mav.getModel().get("cache")).get(key);
+	}
+
+	private String execute(Mustache template, ModelAndView mav) {
+		StringWriter output = new StringWriter();
+		template.execute(output, mav.getModel());
+		return output.toString();
+	}
+
+	public static class Counter {
+		private int count = 0;
+
+		public int next() {
+			return ++count;
+		}
+	}
+}
@@ -16,14 +16,32 @@
 package org.springframework.web.servlet.view.mustache;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -31,9 +49,12 @@ import org.jmock.integration.junit4.JMock;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.FileCopyUtils;
 
 import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheException;
@@ -183,6 +204,277 @@ public class MustacheTemplateLoaderTest {
 		templateLoader.compile(corruptTemplate);
 	}
 
+	@Test
+	public void compilesATemplateOnlyOnce() {
+
+		context.checking(new Expectations() {
+			{
+				oneOf(resourceLoader).getResource(pathFor(TEST_TEMPLATE));
+				will(returnValue(test));
+			}
+		});
+
+		Mustache template = templateLoader.compile(pathFor(TEST_TEMPLATE));
+		assertThat(templateLoader.compile(TEST_TEMPLATE), sameInstance(template));
+	}
+
+	@Test
+	public void recompilesATemplateOnlyWhenItWasModified() throws IOException {
+
+		final String reloadedTemplate = "test-reloaded.html";
+		final Resource reloaded = context.mock(Resource.class);
+
+		context.checking(new Expectations() {
+			{
+				allowing(resourceLoader).getResource(pathFor(reloadedTemplate));
+				will(returnValue(reloaded));
+
+				allowing(reloaded).exists();
+				will(returnValue(Boolean.TRUE));
+
+				exactly(2).of(reloaded).getInputStream();
+				will(onConsecutiveCalls(returnValue(streamOf("<h1>{{first}}</h1>")),
+						returnValue(streamOf("<h1>{{second}}</h1>"))));
+
+				allowing(reloaded).lastModified();
+				will(onConsecutiveCalls(returnValue(1L), returnValue(1L), returnValue(2L), returnValue(2L)));
+			}
+		});
+
+		templateLoader.setReloadTemplates(true);
+
+		Mustache template = templateLoader.compile(reloadedTemplate);
+		assertThat(templateLoader.compile(reloadedTemplate), sameInstance(template));
+		assertThat(templateLoader.compile(reloadedTemplate), not(sameInstance(template)));
+	}
+
+	@Test
+	public void cachesTheLookupOfTemplatesThatAreNotFound() {
+
+		final String noSuchTemplate = "test-no-such-template.html";
+		final Resource missing = context.mock(Resource.class);
+
+		context.checking(new Expectations() {
+			{
+				oneOf(resourceLoader).getResource(pathFor(noSuchTemplate));
+				will(returnValue(missing));
+
+				oneOf(missing).exists();
+				will(returnValue(Boolean.FALSE));
+			}
+		});
+
+		templateLoader.setResourceCacheTtl(60000);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				templateLoader.compile(noSuchTemplate);
+				fail("Expected a MustacheException");
+			} catch (MustacheException e) {
+				// the second lookup is served from the cache
+			}
+		}
+	}
+
+	@Test
+	public void compilesATemplateOnceForConcurrentRequests() throws Exception {
+
+		final AtomicInteger lookups = new AtomicInteger();
+		templateLoader.setResourceLoader(new DefaultResourceLoader() {
+			@Override
+			public Resource getResource(String location) {
+				lookups.incrementAndGet();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.getResource(location);
+			}
+		});
+
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Mustache>> templates = new ArrayList<Future<Mustache>>();
+		for (int i = 0; i < threads; i++) {
+			templates.add(executor.submit(new Callable<Mustache>() {
+				public Mustache call() throws Exception {
+					start.await();
+					return templateLoader.compile(TEST_TEMPLATE);
+				}
+			}));
+		}
+		start.countDown();
+
+		for (Future<Mustache> template : templates) {
+			assertThat(template.get(), sameInstance(templates.get(0).get()));
+		}
+		executor.shutdown();
+		assertThat(lookups.get(), equalTo(1));
+	}
+
+	@Test(timeout = 10000)
+	public void doesNotWaitForAPartialCompiledByAnotherThread() throws Exception {
+
+		final CountDownLatch lookingUp = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger partialLookups = new AtomicInteger();
+		templateLoader.setResourceLoader(new DefaultResourceLoader() {
+			@Override
+			public Resource getResource(String location) {
+				if (location.equals(pathFor(PARTIAL_TEMPLATE)) && partialLookups.incrementAndGet() == 1) {
+					lookingUp.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.getResource(location);
+			}
+		});
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Mustache> partialTemplate = executor.submit(new Callable<Mustache>() {
+				public Mustache call() {
+					return templateLoader.compile(PARTIAL_TEMPLATE);
+				}
+			});
+			lookingUp.await();
+
+			StringWriter writer = new StringWriter();
+			templateLoader.compile(PARENT_TEMPLATE).execute(writer, new HashMap<String, Object>()).flush();
+			assertThat(writer.toString(), containsString("<h1>Parent</h1>"));
+
+			release.countDown();
+			assertThat(partialTemplate.get(), notNullValue());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void invalidatesOnlyTheTemplatesIncludingAPartial() {
+
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+
+		Mustache parentTemplate = templateLoader.compile(PARENT_TEMPLATE);
+		Mustache testTemplate = templateLoader.compile(TEST_TEMPLATE);
+
+		assertThat(templateLoader.getIncludedTemplates(PARENT_TEMPLATE), hasItem(pathFor(PARTIAL_TEMPLATE)));
+		assertThat(templateLoader.getIncludingTemplates(PARTIAL_TEMPLATE), hasItem(pathFor(PARENT_TEMPLATE)));
+
+		assertThat(templateLoader.invalidate(PARTIAL_TEMPLATE), hasItem(pathFor(PARENT_TEMPLATE)));
+		assertThat(templateLoader.compile(PARENT_TEMPLATE), not(sameInstance(parentTemplate)));
+		assertThat(templateLoader.compile(TEST_TEMPLATE), sameInstance(testTemplate));
+	}
+
+	@Test
+	public void evictsTheTemplatesIncludingAnEvictedPartial() {
+
+		BoundedTemplateCache templateCache = new BoundedTemplateCache();
+		templateCache.setMaxEntries(2);
+		templateLoader.setTemplateCache(templateCache);
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+
+		Mustache parentTemplate = templateLoader.compile(PARENT_TEMPLATE);
+		assertThat(templateLoader.getIncludingTemplates(PARTIAL_TEMPLATE), hasItem(pathFor(PARENT_TEMPLATE)));
+
+		// the partial is the least recently used template
+		templateLoader.compile(TEST_TEMPLATE);
+
+		assertThat(templateLoader.getIncludingTemplates(PARTIAL_TEMPLATE).isEmpty(), equalTo(true));
+		assertThat(templateLoader.getIncludedTemplates(PARENT_TEMPLATE).isEmpty(), equalTo(true));
+		assertThat(templateCache.getEntryCount(), equalTo(1));
+		assertThat(templateLoader.compile(PARENT_TEMPLATE), not(sameInstance(parentTemplate)));
+	}
+
+	@Test
+	public void indexesTheTemplatesBelowThePrefix() {
+
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+		templateLoader.setIndexTemplates(true);
+
+		TemplateIndex index = templateLoader.getTemplateIndex();
+		assertThat(index.size(), equalTo(4));
+		assertThat(index.get(pathFor(PARENT_TEMPLATE)).getContentLength(), greaterThan(0L));
+		assertThat(templateLoader.compile(PARENT_TEMPLATE), notNullValue());
+	}
+
+	@Test(expected = MustacheException.class)
+	public void throwsExceptionForTemplatesThatAreNotIndexed() {
+
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+		templateLoader.setIndexTemplates(true);
+
+		templateLoader.compile("test-no-such-template.html");
+	}
+
+	@Test
+	public void evaluatesCallableValuesOnTheEvaluationThreads() throws Exception {
+
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+		templateLoader.setEvaluationThreads(2);
+		templateLoader.afterPropertiesSet();
+
+		try {
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put("test", new Callable<String>() {
+				public String call() {
+					return Thread.currentThread().getName();
+				}
+			});
+			StringWriter writer = new StringWriter();
+			templateLoader.compile(TEST_TEMPLATE).execute(writer, values).close();
+
+			assertThat(writer.toString(), startsWith("mustache-evaluation-"));
+		} finally {
+			templateLoader.destroy();
+		}
+	}
+
+	@Test
+	public void loadsTemplatesFromTheFirstTemplateRootContainingThem() throws Exception {
+
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+		templateLoader.setTemplateRoots(Arrays.asList("WEB-INF/tenant/", TEST_TEMPLATES_PATH));
+
+		StringWriter writer = new StringWriter();
+		templateLoader.compile(pathFor(PARENT_TEMPLATE)).execute(writer, new HashMap<String, Object>()).flush();
+
+		assertThat(writer.toString(), containsString("<h1>Parent</h1>"));
+		assertThat(writer.toString(), containsString("<h2>tenant partial</h2>"));
+		assertThat(templateLoader.getTemplateNames(".html"), hasItem(pathFor(PARTIAL_TEMPLATE)));
+	}
+
+	@Test
+	public void looksUpTheTemplateRootsAgainWhenReloadingTemplates() throws Exception {
+		final Resource missing = new ClassPathResource("WEB-INF/tenant/no-such-template.html");
+		context.checking(new Expectations() {
+			{
+				oneOf(resourceLoader).getResource("WEB-INF/tenant/page.html");
+				will(returnValue(missing));
+				oneOf(resourceLoader).getResource(pathFor("page.html"));
+				will(returnValue(new ByteArrayResource("default".getBytes("UTF-8"))));
+				oneOf(resourceLoader).getResource("WEB-INF/tenant/page.html");
+				will(returnValue(new ByteArrayResource("tenant".getBytes("UTF-8"))));
+			}
+		});
+		templateLoader.setTemplateRoots(Arrays.asList("WEB-INF/tenant/", TEST_TEMPLATES_PATH));
+		templateLoader.setReloadTemplates(true);
+
+		assertThat(FileCopyUtils.copyToString(templateLoader.getReader("page.html")), equalTo("default"));
+		// a template added to the higher root is found
+		assertThat(FileCopyUtils.copyToString(templateLoader.getReader("page.html")), equalTo("tenant"));
+	}
+
+	private ByteArrayInputStream streamOf(String content) throws IOException {
+		return new ByteArrayInputStream(content.getBytes("UTF-8"));
+	}
+
 	private String pathFor(String templateName) {
 		return TEST_TEMPLATES_PATH.concat(templateName);
 	}
@@ -16,10 +16,17 @@
 package org.springframework.web.servlet.view.mustache;
 
 import static junit.framework.Assert.assertNotNull;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.integration.junit4.JMock;
@@ -212,6 +219,26 @@ public class MustacheViewResolverTest {
         assertFalse(canHandle);
     }
 
+    /**
+     * The view name itself, then the longest matching pattern, selects the
+     * attributes of a view.
+     */
+    @Test
+    public void selectsTheMostSpecificAttributesOfAView() throws Exception {
+        Properties attributes = new Properties();
+        attributes.setProperty("*", "locale");
+        attributes.setProperty("product*", "productId,version");
+        attributes.setProperty("productList", "category");
+
+        assertArrayEquals(new String[] { "productId", "version" },
+                AbstractMustacheViewResolver.getAttributes(attributes, "productDetail"));
+        assertArrayEquals(new String[] { "category" },
+                AbstractMustacheViewResolver.getAttributes(attributes, "productList"));
+        assertArrayEquals(new String[] { "locale" },
+                AbstractMustacheViewResolver.getAttributes(attributes, "home"));
+        assertNull(AbstractMustacheViewResolver.getAttributes(null, "home"));
+    }
+
     /**
      * Check the required view class
      */
@@ -232,4 +259,29 @@ public class MustacheViewResolverTest {
         Class<?> className = r.requiredViewClass();
         assertEquals(MustacheView.class, className);
     }
+
+    @Test
+    public void destroyLeavesASharedDeferredExecutorRunning() throws Exception {
+        ExecutorService shared = Executors.newSingleThreadExecutor();
+        try {
+            MustacheViewResolver r = new MustacheViewResolver();
+            r.setDeferredExecutor(shared);
+            r.destroy();
+
+            assertSame(shared, r.getDeferredExecutor());
+            assertFalse(shared.isShutdown());
+        } finally {
+            shared.shutdown();
+        }
+    }
+
+    @Test
+    public void destroyShutsDownItsOwnDeferredExecutor() throws Exception {
+        MustacheViewResolver r = new MustacheViewResolver();
+        r.setDeferredThreads(1);
+        ExecutorService own = r.getDeferredExecutor();
+        r.destroy();
+
+        assertTrue(own.isShutdown());
+    }
 }
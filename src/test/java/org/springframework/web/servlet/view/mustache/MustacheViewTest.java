@@ -17,22 +17,44 @@ package org.springframework.web.servlet.view.mustache;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
 import org.jmock.Mockery;
 import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.web.servlet.DispatcherServlet;
 
 import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheException;
 
 /**
  * @author Eric D. White <eric@ericwhite.ca>
@@ -61,7 +83,7 @@ public class MustacheViewTest {
 				oneOf(response).setCharacterEncoding(with(any(String.class)));
 				oneOf(response).getWriter();
 				will(returnValue(writer));
-				oneOf(template).execute(writer, model);
+				oneOf(template).execute(with(any(Writer.class)), with(same(model)));
 				oneOf(writer).flush();
 			}
 		});
@@ -72,4 +94,470 @@ public class MustacheViewTest {
 
 		assertThat(view.getTemplate(), equalTo(template));
 	}
+
+	@Test
+	public void setsTheResponseBufferSize() throws Exception {
+		final Map<String, Object> model = Collections.<String, Object> emptyMap();
+
+		HttpServletRequest UNUSED_REQUEST = null;
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final PrintWriter writer = context.mock(PrintWriter.class);
+		final Mustache template = context.mock(Mustache.class);
+
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).setBufferSize(32768);
+				oneOf(response).getWriter();
+				will(returnValue(writer));
+				oneOf(template).execute(with(any(Writer.class)), with(same(model)));
+				will(new CustomAction("return the writer") {
+					public Object invoke(Invocation invocation) {
+						return invocation.getParameter(0);
+					}
+				});
+				oneOf(writer).flush();
+			}
+		});
+
+		MustacheView view = new MustacheView();
+		view.setTemplate(template);
+		view.setBufferSize(32768);
+		view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+	}
+
+	@Test
+	public void rendersABufferedPageWithItsContentLength() throws Exception {
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("test", "白");
+
+		HttpServletRequest UNUSED_REQUEST = null;
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final ServletOutputStream out = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				body.write(b);
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		};
+
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).setContentLength(4);
+				oneOf(response).getOutputStream();
+				will(returnValue(out));
+			}
+		});
+
+		MustacheTemplateLoader templateLoader = new MustacheTemplateLoader();
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+
+		MustacheView view = new MustacheView();
+		view.setTemplate(templateLoader.compile("WEB-INF/views/test-template.html"));
+		view.setBufferOutput(true);
+		view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+
+		assertThat(body.toString("UTF-8"), equalTo("白\n"));
+	}
+
+	@Test
+	public void waitsForTheValuesEvaluatedConcurrently() throws Exception {
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("test", new Callable<String>() {
+			public String call() throws InterruptedException {
+				Thread.sleep(100);
+				return "slow";
+			}
+		});
+
+		HttpServletRequest UNUSED_REQUEST = null;
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final ServletOutputStream out = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				body.write(b);
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		};
+
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).setContentLength(5);
+				oneOf(response).getOutputStream();
+				will(returnValue(out));
+			}
+		});
+
+		MustacheTemplateLoader templateLoader = new MustacheTemplateLoader();
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+		templateLoader.setEvaluationThreads(1);
+		templateLoader.afterPropertiesSet();
+		try {
+			MustacheView view = new MustacheView();
+			view.setTemplate(templateLoader.compile("WEB-INF/views/test-template.html"));
+			view.setBufferOutput(true);
+			view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+
+			assertThat(body.toString("UTF-8"), equalTo("slow\n"));
+		} finally {
+			templateLoader.destroy();
+		}
+	}
+
+	@Test
+	public void sendsTheCachedPageWithoutRenderingIt() throws Exception {
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("id", 1);
+
+		final HttpServletRequest request = context.mock(HttpServletRequest.class);
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final Mustache template = context.mock(Mustache.class);
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final ServletOutputStream out = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				body.write(b);
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		};
+
+		allowLocale(request, Locale.ENGLISH);
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).setContentLength(3);
+				oneOf(response).getOutputStream();
+				will(returnValue(out));
+			}
+		});
+
+		PageCache pageCache = new PageCache();
+		pageCache.put("product" + PageCache.SEPARATOR + "en" + PageCache.SEPARATOR + "id=1",
+				"hit".getBytes("UTF-8"), 60000);
+
+		MustacheView view = new MustacheView();
+		view.setBeanName("product");
+		view.setTemplate(template);
+		view.setPageCache(pageCache);
+		view.setPageCacheAttributes(new String[] { "id" });
+		view.renderMergedTemplateModel(model, request, response);
+
+		assertThat(body.toString("UTF-8"), equalTo("hit"));
+		assertThat(pageCache.getHitCount(), equalTo(1L));
+	}
+
+	@Test
+	public void streamsUncompressedWhenFlushingWhileRendering() throws Exception {
+		final Map<String, Object> model = Collections.<String, Object> emptyMap();
+
+		final HttpServletRequest request = context.mock(HttpServletRequest.class);
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final PrintWriter writer = context.mock(PrintWriter.class);
+		final Mustache template = context.mock(Mustache.class);
+
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).getWriter();
+				will(returnValue(writer));
+				oneOf(template).execute(with(any(Writer.class)), with(same(model)));
+				oneOf(writer).flush();
+			}
+		});
+
+		MustacheView view = new MustacheView();
+		view.setTemplate(template);
+		view.setCompress(true);
+		view.setFlushThreshold(1024);
+		view.renderMergedTemplateModel(model, request, response);
+	}
+
+	@Test
+	public void leavesACompressedPageTruncatedWhenRenderingFails() throws Exception {
+		final Map<String, Object> model = Collections.<String, Object> emptyMap();
+
+		final HttpServletRequest request = context.mock(HttpServletRequest.class);
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final Mustache template = context.mock(Mustache.class);
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final ServletOutputStream out = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				body.write(b);
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		};
+
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).addHeader("Vary", "Accept-Encoding");
+				oneOf(request).getHeader("Accept-Encoding");
+				will(returnValue("gzip"));
+				oneOf(response).setHeader("Content-Encoding", "gzip");
+				oneOf(response).getOutputStream();
+				will(returnValue(out));
+				oneOf(template).execute(with(any(Writer.class)), with(same(model)));
+				will(new CustomAction("render and fail") {
+					public Object invoke(Invocation invocation) throws Throwable {
+						((Writer) invocation.getParameter(0)).write("partial");
+						throw new MustacheException("Failed to render");
+					}
+				});
+			}
+		});
+
+		MustacheView view = new MustacheView();
+		view.setTemplate(template);
+		view.setCompress(true);
+		try {
+			view.renderMergedTemplateModel(model, request, response);
+			fail("rendering should fail");
+		} catch (MustacheException expected) {
+		}
+
+		try {
+			FileCopyUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())));
+			fail("the compressed page should be truncated");
+		} catch (EOFException expected) {
+		}
+	}
+
+	@Test
+	public void answersNotModifiedWithoutRenderingWhenTheModelEtagMatches() throws Exception {
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("productId", 42);
+
+		final HttpServletRequest request = context.mock(HttpServletRequest.class);
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final Mustache template = context.mock(Mustache.class);
+
+		final MustacheView view = new MustacheView();
+		view.setUrl("product.html");
+		view.setTemplate(template);
+		view.setEtagAttributes(new String[] { "productId" });
+		allowLocale(request, Locale.CANADA);
+		final String etag = view.getModelEtag(model, request);
+
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).addHeader("Vary", "Accept-Language");
+				oneOf(request).getMethod();
+				will(returnValue("GET"));
+				oneOf(request).getHeader("If-None-Match");
+				will(returnValue(etag));
+				oneOf(response).setHeader("ETag", etag);
+				oneOf(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			}
+		});
+
+		view.renderMergedTemplateModel(model, request, response);
+	}
+
+	@Test
+	public void namesTheContentEncodingInTheModelEtag() throws Exception {
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("productId", 42);
+
+		final HttpServletRequest request = context.mock(HttpServletRequest.class);
+		final HttpServletResponse response = context.mock(HttpServletResponse.class);
+		final Mustache template = context.mock(Mustache.class);
+
+		final MustacheView view = new MustacheView();
+		view.setUrl("product.html");
+		view.setTemplate(template);
+		view.setCompress(true);
+		view.setEtagAttributes(new String[] { "productId" });
+		allowLocale(request, Locale.CANADA);
+		final String etag = view.getModelEtag(model, request);
+		final String gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+
+		context.checking(new Expectations() {
+			{
+				oneOf(response).setContentType(with(any(String.class)));
+				oneOf(response).setCharacterEncoding(with(any(String.class)));
+				oneOf(response).addHeader("Vary", "Accept-Encoding");
+				oneOf(request).getHeader("Accept-Encoding");
+				will(returnValue("gzip, deflate"));
+				oneOf(response).addHeader("Vary", "Accept-Language");
+				oneOf(request).getMethod();
+				will(returnValue("GET"));
+				oneOf(request).getHeader("If-None-Match");
+				will(returnValue(gzipEtag));
+				oneOf(response).setHeader("ETag", gzipEtag);
+				oneOf(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			}
+		});
+
+		view.renderMergedTemplateModel(model, request, response);
+	}
+
+	@Test
+	public void changesTheModelEtagWithTheLocaleAndTheTemplateVersion() throws Exception {
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("productId", 42);
+
+		final HttpServletRequest canadianRequest = context.mock(HttpServletRequest.class, "canadianRequest");
+		final HttpServletRequest frenchRequest = context.mock(HttpServletRequest.class, "frenchRequest");
+		allowLocale(canadianRequest, Locale.CANADA);
+		allowLocale(frenchRequest, Locale.FRANCE);
+
+		MustacheView view = new MustacheView();
+		view.setUrl("product.html");
+		view.setTemplate(context.mock(Mustache.class));
+		view.setEtagAttributes(new String[] { "productId" });
+		view.setTemplateLastModified(1000L);
+		String etag = view.getModelEtag(model, canadianRequest);
+
+		assertThat(view.getModelEtag(model, canadianRequest), equalTo(etag));
+		assertThat(view.getModelEtag(model, frenchRequest), not(equalTo(etag)));
+		view.setTemplateLastModified(2000L);
+		assertThat(view.getModelEtag(model, canadianRequest), not(equalTo(etag)));
+	}
+
+	private void allowLocale(final HttpServletRequest request, final Locale locale) {
+		context.checking(new Expectations() {
+			{
+				allowing(request).getAttribute(DispatcherServlet.LOCALE_RESOLVER_ATTRIBUTE);
+				will(returnValue(null));
+				allowing(request).getLocale();
+				will(returnValue(locale));
+			}
+		});
+	}
+
+	@Test
+	public void rendersTheFallbackOfDeferredValuesThatTimeOut() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("fast", new Callable<String>() {
+			public String call() {
+				return "fast";
+			}
+		});
+		model.put("slow", new Callable<String>() {
+			public String call() throws InterruptedException {
+				release.await();
+				return "slow";
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			MustacheView view = new MustacheView();
+			view.setPrefetchDeferredValues(true);
+			view.setExecutorService(executor);
+			view.setDeferredTimeout(100);
+			view.setDeferredFallback("fallback");
+			view.startDeferredValues(model);
+
+			assertThat(((Callable<?>) model.get("fast")).call(), equalTo((Object) "fast"));
+			assertThat(((Callable<?>) model.get("slow")).call(), equalTo((Object) "fallback"));
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void startsOnlyTheDeferredAttributes() throws Exception {
+		final Callable<String> started = new Callable<String>() {
+			public String call() {
+				return "started";
+			}
+		};
+		final Callable<String> ignored = new Callable<String>() {
+			public String call() {
+				return "ignored";
+			}
+		};
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("started", started);
+		model.put("ignored", ignored);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			MustacheView view = new MustacheView();
+			view.setPrefetchDeferredValues(true);
+			view.setExecutorService(executor);
+			view.setDeferredAttributes(new String[] { "started" });
+			view.startDeferredValues(model);
+
+			assertThat(model.get("started"), not(sameInstance((Object) started)));
+			assertThat(((Callable<?>) model.get("started")).call(), equalTo((Object) "started"));
+			assertThat(model.get("ignored"), sameInstance((Object) ignored));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void startsTheDeferredValuesOfALazyModelWithoutMergingIt() throws Exception {
+		final Map<String, Object> model = new HashMap<String, Object>();
+		model.put("value", new Callable<String>() {
+			public String call() {
+				return "value";
+			}
+		});
+		// the request attributes are not enumerated
+		HttpServletRequest request = context.mock(HttpServletRequest.class);
+		ModelScope scope = new ModelScope(model, null, Collections.<String, Object> emptyMap(), request, null, null,
+				true, true, Collections.<String> emptySet());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			MustacheView view = new MustacheView();
+			view.setPrefetchDeferredValues(true);
+			view.setExecutorService(executor);
+			view.startDeferredValues(scope);
+
+			assertThat(((Callable<?>) scope.get("value")).call(), equalTo((Object) "value"));
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
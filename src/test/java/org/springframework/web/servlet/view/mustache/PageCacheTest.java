@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Test;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PageCacheTest {
+
+	private static final long TTL = 60000;
+
+	private final PageCache pageCache = new PageCache();
+
+	@Test
+	public void returnsTheCachedPage() {
+		pageCache.put(key("home", "en"), new byte[] { 1, 2, 3 }, TTL);
+
+		assertThat(pageCache.get(key("home", "en")), equalTo(new byte[] { 1, 2, 3 }));
+		assertThat(pageCache.get(key("home", "fr")), nullValue());
+		assertThat(pageCache.getHitCount(), equalTo(1L));
+		assertThat(pageCache.getMissCount(), equalTo(1L));
+	}
+
+	@Test
+	public void expiresPagesAfterTheirTimeToLive() {
+		pageCache.put(key("home", "en"), new byte[] { 1 }, -1);
+
+		assertThat(pageCache.get(key("home", "en")), nullValue());
+		assertThat(pageCache.getSize(), equalTo(0L));
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedPagesOverTheMaximumSize() {
+		pageCache.setMaxSize(4);
+		pageCache.put(key("first", "en"), new byte[2], TTL);
+		pageCache.put(key("second", "en"), new byte[2], TTL);
+		pageCache.get(key("first", "en"));
+		pageCache.put(key("third", "en"), new byte[2], TTL);
+
+		assertThat(pageCache.get(key("first", "en")), notNullValue());
+		assertThat(pageCache.get(key("second", "en")), nullValue());
+		assertThat(pageCache.getEvictionCount(), equalTo(1L));
+		assertThat(pageCache.getSize(), equalTo(4L));
+	}
+
+	@Test
+	public void invalidatesThePagesOfAView() {
+		pageCache.put(key("product", "en"), new byte[1], TTL);
+		pageCache.put(key("product", "fr"), new byte[1], TTL);
+		pageCache.put(key("productList", "en"), new byte[1], TTL);
+
+		pageCache.invalidate("product");
+
+		assertThat(pageCache.getEntryCount(), equalTo(1));
+		assertThat(pageCache.get(key("productList", "en")), notNullValue());
+	}
+
+	@Test
+	public void invalidatesThePagesWithAKeyPrefix() {
+		pageCache.put(key("product", "en"), new byte[1], TTL);
+		pageCache.put(key("productList", "en"), new byte[1], TTL);
+		pageCache.put(key("home", "en"), new byte[1], TTL);
+
+		pageCache.invalidatePrefix("product");
+
+		assertThat(pageCache.getEntryCount(), equalTo(1));
+		assertThat(pageCache.getSize(), equalTo(1L));
+	}
+
+	private String key(String viewName, String locale) {
+		return viewName + PageCache.SEPARATOR + locale;
+	}
+}
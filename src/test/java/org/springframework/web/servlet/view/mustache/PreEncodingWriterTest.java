@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PreEncodingWriterTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final EncodedTextCache cache = new EncodedTextCache();
+
+	@Test
+	public void reusesTheEncodedBytesOfLongTextWrittenAgain() throws Exception {
+		String segment = "<h1>Eric D. White -白- &lt;eric@ericwhite.ca&gt;</h1>";
+		PreEncodingWriter writer = new PreEncodingWriter(out, UTF8, cache);
+
+		writer.write(segment);
+		assertThat(cache.get(segment), nullValue());
+		writer.write("白");
+		writer.write(segment);
+		writer.write(segment);
+		writer.flush();
+
+		assertThat(cache.get(segment), notNullValue());
+		assertThat(cache.get("白"), nullValue());
+		assertThat(out.toString("UTF-8"), equalTo(segment + "白" + segment + segment));
+	}
+
+	@Test
+	public void doesNotCacheEqualTextThatIsNotTheSameString() throws Exception {
+		String segment = "<h1>Eric D. White -白- &lt;eric@ericwhite.ca&gt;</h1>";
+		PreEncodingWriter writer = new PreEncodingWriter(out, UTF8, cache);
+
+		writer.write(new String(segment));
+		writer.write(new String(segment));
+		writer.flush();
+
+		assertThat(cache.get(segment), nullValue());
+		assertThat(out.toString("UTF-8"), equalTo(segment + segment));
+	}
+
+	@Test
+	public void cachesTheTextOfTemplatesLargerThanTheInitialSlots() throws Exception {
+		String[] segments = new String[4 * EncodedTextCache.DEFAULT_SLOTS];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = "<li class=\"static segment\">" + i + "</li>\n        ";
+		}
+		for (int render = 0; render < 5; render++) {
+			PreEncodingWriter writer = new PreEncodingWriter(new ByteArrayOutputStream(), UTF8, cache);
+			for (String segment : segments) {
+				writer.write(segment);
+			}
+			writer.flush();
+		}
+
+		int cached = 0;
+		for (String segment : segments) {
+			if (cache.get(segment) != null) {
+				cached++;
+			}
+		}
+		assertThat(cache.getSlots(), greaterThan(EncodedTextCache.DEFAULT_SLOTS));
+		assertThat(cached, greaterThan(segments.length * 95 / 100));
+	}
+
+	@Test
+	public void encodesPartsOfText() throws Exception {
+		PreEncodingWriter writer = new PreEncodingWriter(out, UTF8, cache);
+
+		writer.write("-白-".toCharArray(), 1, 1);
+		writer.write("-白-", 2, 1);
+		writer.flush();
+
+		assertThat(out.toString("UTF-8"), equalTo("白-"));
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.DefaultResourceLoader;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class TemplateManifestGeneratorTest {
+
+	private static final String TEST_TEMPLATES_PATH = "WEB-INF/views/";
+
+	private TemplateManifest manifest;
+
+	@Before
+	public void setUp() throws Exception {
+		manifest = new TemplateManifestGenerator(new ClassPathResource(TEST_TEMPLATES_PATH).getFile(), ".html")
+				.generate();
+	}
+
+	@Test
+	public void listsTheTemplates() {
+		assertThat(manifest.getTemplateNames().size(), equalTo(4));
+		assertThat(manifest.getTemplateNames(), hasItem("test-parent.html"));
+		assertThat(manifest.getTemplateNames(), hasItem("test-partial.html"));
+	}
+
+	@Test
+	public void recordsThePartialsOfTheTemplates() {
+		assertThat(manifest.getPartials("test-parent.html"), hasItem("test-partial.html"));
+		assertThat(manifest.getPartials("test-partial.html").size(), equalTo(0));
+	}
+
+	@Test
+	public void readsAWrittenManifest() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manifest.write(out);
+
+		TemplateManifest read = TemplateManifest.read(new ByteArrayInputStream(out.toByteArray()));
+		assertThat(read.getTemplateNames(), equalTo(manifest.getTemplateNames()));
+		for (String templateName : manifest.getTemplateNames()) {
+			assertThat(read.getPartials(templateName), equalTo(manifest.getPartials(templateName)));
+		}
+	}
+
+	@Test
+	public void readsTheTemplatesAndTheirPartials() throws Exception {
+		TemplateManifest read = TemplateManifest.read(new ByteArrayInputStream(
+				"# manifest\nparent.html: header.html, footer.html\nheader.html\n".getBytes("UTF-8")));
+
+		assertThat(read.getTemplateNames().size(), equalTo(2));
+		assertThat(read.getPartials("parent.html").size(), equalTo(2));
+		assertThat(read.getPartials("parent.html"), hasItem("footer.html"));
+		assertThat(read.getPartials("header.html").size(), equalTo(0));
+	}
+
+	@Test
+	public void listsTheTemplatesOfTheLoaderFromTheManifest() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manifest.write(out);
+
+		MustacheTemplateLoader templateLoader = new MustacheTemplateLoader();
+		templateLoader.setPrefix(TEST_TEMPLATES_PATH);
+		templateLoader.setTemplateManifest(new ByteArrayResource(out.toByteArray()));
+
+		assertThat(templateLoader.getTemplateNames(".html"), hasItem(TEST_TEMPLATES_PATH + "test-parent.html"));
+	}
+
+	@Test
+	public void listsOnlyTheManifestTemplatesFoundInTheTemplateRoots() throws Exception {
+		TemplateManifest stale = new TemplateManifest();
+		stale.addTemplate("test-parent.html", Arrays.asList("test-partial.html"));
+		stale.addTemplate("test-removed.html");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		stale.write(out);
+
+		MustacheTemplateLoader templateLoader = new MustacheTemplateLoader();
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+		templateLoader.setPrefix(TEST_TEMPLATES_PATH);
+		templateLoader.setTemplateRoots(Arrays.asList("classpath:" + TEST_TEMPLATES_PATH));
+		templateLoader.setTemplateManifest(new ByteArrayResource(out.toByteArray()));
+
+		assertThat(templateLoader.getTemplateNames(".html"),
+				equalTo(Arrays.asList(TEST_TEMPLATES_PATH + "test-parent.html")));
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.DefaultResourceLoader;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class TemplatePrecompilerTest {
+
+	private static final String TEST_TEMPLATES_PATH = "WEB-INF/views/";
+
+	private MustacheTemplateLoader templateLoader;
+	private TemplatePrecompiler precompiler;
+
+	@Before
+	public void setUp() {
+		templateLoader = new MustacheTemplateLoader();
+		templateLoader.setPrefix(TEST_TEMPLATES_PATH);
+		templateLoader.setResourceLoader(new DefaultResourceLoader());
+
+		precompiler = new TemplatePrecompiler(templateLoader);
+		precompiler.setThreads(2);
+		precompiler.setWarmUp(true);
+	}
+
+	@Test
+	public void findsAllTheTemplatesBelowThePrefix() throws Exception {
+		List<String> templateNames = templateLoader.getTemplateNames(".html");
+
+		assertThat(templateNames.size(), equalTo(4));
+		assertThat(templateNames, hasItem(TEST_TEMPLATES_PATH + "test-parent.html"));
+	}
+
+	@Test
+	public void precompilesAllTheTemplates() throws Exception {
+		TemplatePrecompiler.Result result = precompiler.precompile(".html");
+
+		assertThat(result.getCompiled(), equalTo(4));
+		assertThat(result.getFailed(), equalTo(0));
+	}
+
+	@Test
+	public void precompilesTheTemplatesOfTheManifestPartialsFirst() throws Exception {
+		TemplateManifest manifest = new TemplateManifest();
+		manifest.addTemplate("test-parent.html", Arrays.asList("test-partial.html"));
+		manifest.addTemplate("test-partial.html");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manifest.write(out);
+		templateLoader.setTemplateManifest(new ByteArrayResource(out.toByteArray()));
+
+		TemplatePrecompiler.Result result = precompiler.precompile(".html");
+
+		assertThat(result.getCompiled(), equalTo(2));
+		assertThat(result.getFailed(), equalTo(0));
+	}
+
+	@Test
+	public void countsTheTemplatesThatFailToCompile() throws Exception {
+		TemplatePrecompiler.Result result = precompiler.precompile(Arrays.asList(
+				TEST_TEMPLATES_PATH + "test-template.html", TEST_TEMPLATES_PATH + "test-no-such-template.html"));
+
+		assertThat(result.getCompiled(), equalTo(1));
+		assertThat(result.getFailed(), equalTo(1));
+	}
+}
@@ -17,6 +17,9 @@ package org.springframework.web.servlet.view.mustache.pdf;
 
 import static junit.framework.Assert.assertEquals;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.integration.junit4.JMock;
@@ -82,4 +85,36 @@ public class MustachePDFViewResolverTest {
 	final String realViewName = r.getRealUrl(viewName + ".pdf");
 	assertEquals(viewName, realViewName);
     }
+
+    @Test
+    public void destroyLeavesASharedRenderExecutorRunning() throws Exception {
+	PDFRenderExecutor shared = new PDFRenderExecutor(1, 1);
+	try {
+	    MustachePDFViewResolver r = new MustachePDFViewResolver();
+	    r.setRenderExecutor(shared);
+	    r.destroy();
+
+	    assertEquals("pdf", shared.render(new Callable<String>() {
+		public String call() {
+		    return "pdf";
+		}
+	    }));
+	} finally {
+	    shared.destroy();
+	}
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void destroyShutsDownItsOwnRenderExecutor() throws Exception {
+	MustachePDFViewResolver r = new MustachePDFViewResolver();
+	r.setRenderThreads(1);
+	PDFRenderExecutor own = r.getRenderExecutor();
+	r.destroy();
+
+	own.render(new Callable<String>() {
+	    public String call() {
+		return "pdf";
+	    }
+	});
+    }
 }
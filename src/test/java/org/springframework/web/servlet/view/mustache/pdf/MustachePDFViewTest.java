@@ -25,8 +25,11 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -34,7 +37,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,6 +47,7 @@ import org.springframework.core.io.ClassPathResource;
 import org.xml.sax.SAXParseException;
 
 import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheException;
 
 /**
  * @author Eric D. White <eric@ericwhite.ca>
@@ -71,7 +77,7 @@ public class MustachePDFViewTest {
 	final byte[] rawOutput = new byte[1];
 	context.checking(new Expectations() {
 	    {
-		oneOf(template).execute(with(any(StringWriter.class)),
+		oneOf(template).execute(with(any(Writer.class)),
 			with(model));
 		will(perform("$0.write(content)").where("content",
 			getTestContent()));
@@ -91,6 +97,126 @@ public class MustachePDFViewTest {
 	assertThat(view.getTemplate(), equalTo(template));
     }
 
+    @Test
+    public void rendersAModelFromBufferedMarkup() throws Exception {
+	final Map<String, Object> model = Collections
+		.<String, Object> emptyMap();
+
+	HttpServletRequest UNUSED_REQUEST = null;
+	final HttpServletResponse response = context
+		.mock(HttpServletResponse.class);
+	final ServletOutputStream outputStream = context
+		.mock(ServletOutputStream.class);
+	final Mustache template = context.mock(Mustache.class);
+
+	final byte[] rawOutput = new byte[1];
+	context.checking(new Expectations() {
+	    {
+		oneOf(template).execute(with(any(Writer.class)),
+			with(model));
+		will(perform("$0.write(content)").where("content",
+			getTestContent()));
+		oneOf(response).getOutputStream();
+		will(returnValue(outputStream));
+		oneOf(outputStream).write(with(any(rawOutput.getClass())),
+			with(any(Integer.class)), with(any(Integer.class)));
+		allowing(outputStream).flush();
+		oneOf(outputStream).close();
+	    }
+	});
+
+	MustachePDFView view = new MustachePDFView();
+	view.setTemplate(template);
+	view.setStreamMarkup(false);
+	view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+    }
+
+    @Test
+    public void rendersAModelFromPipedMarkup() throws Exception {
+	final Map<String, Object> model = Collections
+		.<String, Object> emptyMap();
+
+	HttpServletRequest UNUSED_REQUEST = null;
+	final HttpServletResponse response = context
+		.mock(HttpServletResponse.class);
+	final ServletOutputStream outputStream = context
+		.mock(ServletOutputStream.class);
+	final Mustache template = context.mock(Mustache.class);
+
+	final byte[] rawOutput = new byte[1];
+	context.checking(new Expectations() {
+	    {
+		oneOf(template).execute(with(any(Writer.class)),
+			with(model));
+		will(perform("$0.write(content)").where("content",
+			getTestContent()));
+		oneOf(response).getOutputStream();
+		will(returnValue(outputStream));
+		oneOf(outputStream).write(with(any(rawOutput.getClass())),
+			with(any(Integer.class)), with(any(Integer.class)));
+		allowing(outputStream).flush();
+		oneOf(outputStream).close();
+	    }
+	});
+
+	ExecutorService parserExecutor = Executors.newSingleThreadExecutor();
+	MustachePDFView view = new MustachePDFView();
+	view.setTemplate(template);
+	view.setParserExecutor(parserExecutor);
+	try {
+	    view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+	} finally {
+	    parserExecutor.shutdown();
+	}
+    }
+
+    @Test
+    public void pipedMarkupThrowsTheParseException() throws Exception {
+	final Map<String, Object> model = Collections
+		.<String, Object> emptyMap();
+
+	HttpServletRequest UNUSED_REQUEST = null;
+	final HttpServletResponse response = context
+		.mock(HttpServletResponse.class);
+	final Mustache template = context.mock(Mustache.class);
+
+	context.checking(new Expectations() {
+	    {
+		oneOf(template).execute(with(any(Writer.class)),
+			with(model));
+		will(new CustomAction("writes malformed markup") {
+		    public Object invoke(Invocation invocation) {
+			Writer writer = (Writer) invocation.getParameter(0);
+			try {
+			    writer.write("<html><body></div>");
+			    // more than the pipe holds, so the template is
+			    // still writing when the parser fails
+			    for (int i = 0; i < MustachePDFView.PIPE_SIZE; i++) {
+				writer.write("<p>text</p>");
+			    }
+			} catch (IOException e) {
+			    throw new MustacheException("Failed to write", e);
+			}
+			return writer;
+		    }
+		});
+	    }
+	});
+
+	ExecutorService parserExecutor = Executors.newSingleThreadExecutor();
+	MustachePDFView view = new MustachePDFView();
+	view.setTemplate(template);
+	view.setParserExecutor(parserExecutor);
+	try {
+	    view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+	    assertTrue(false);
+	} catch (SAXParseException e) {
+	    assertTrue(true);
+	} finally {
+	    parserExecutor.shutdown();
+	}
+    }
+
     @Test
     public void renderThrowsAnException() throws Exception {
 	final Map<String, Object> model = Collections
@@ -105,7 +231,7 @@ public class MustachePDFViewTest {
 
 	context.checking(new Expectations() {
 	    {
-		oneOf(template).execute(with(any(StringWriter.class)),
+		oneOf(template).execute(with(any(Writer.class)),
 			with(model));
 		oneOf(response).getOutputStream();
 		will(returnValue(outputStream));
@@ -123,6 +249,77 @@ public class MustachePDFViewTest {
 	}
     }
 
+    @Test
+    public void rejectsThePdfWhenTheRenderQueueIsFull() throws Exception {
+	final Map<String, Object> model = Collections
+		.<String, Object> emptyMap();
+
+	HttpServletRequest UNUSED_REQUEST = null;
+	final HttpServletResponse response = context
+		.mock(HttpServletResponse.class);
+	final Mustache template = context.mock(Mustache.class);
+
+	context.checking(new Expectations() {
+	    {
+		oneOf(response).setHeader("Retry-After", "5");
+		oneOf(response).sendError(
+			HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	    }
+	});
+
+	PDFRenderExecutor renderExecutor = new PDFRenderExecutor(1, 1) {
+	    @Override
+	    public boolean admit() {
+		return false;
+	    }
+	};
+	MustachePDFView view = new MustachePDFView();
+	view.setTemplate(template);
+	view.setRenderExecutor(renderExecutor);
+	try {
+	    view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+	} finally {
+	    renderExecutor.destroy();
+	}
+    }
+
+    @Test
+    public void releasesTheAdmissionOfAFailedPdf() throws Exception {
+	final Map<String, Object> model = Collections
+		.<String, Object> emptyMap();
+
+	HttpServletRequest UNUSED_REQUEST = null;
+	final HttpServletResponse response = context
+		.mock(HttpServletResponse.class);
+	final ServletOutputStream outputStream = context
+		.mock(ServletOutputStream.class);
+	final Mustache template = context.mock(Mustache.class);
+
+	context.checking(new Expectations() {
+	    {
+		oneOf(template).execute(with(any(Writer.class)),
+			with(model));
+		oneOf(response).getOutputStream();
+		will(returnValue(outputStream));
+		oneOf(outputStream).flush();
+	    }
+	});
+
+	PDFRenderExecutor renderExecutor = new PDFRenderExecutor(1, 1);
+	MustachePDFView view = new MustachePDFView();
+	view.setTemplate(template);
+	view.setRenderExecutor(renderExecutor);
+	try {
+	    view.renderMergedTemplateModel(model, UNUSED_REQUEST, response);
+	    assertTrue(false);
+	} catch (SAXParseException e) {
+	    assertTrue(renderExecutor.admit());
+	    assertTrue(renderExecutor.admit());
+	} finally {
+	    renderExecutor.destroy();
+	}
+    }
+
     @Test
     public void theResponseIsDownloable() {
 	MustachePDFView view = new MustachePDFView();
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PDFRenderExecutorTest {
+
+    private final PDFRenderExecutor renderExecutor = new PDFRenderExecutor(1, 1);
+
+    private final ExecutorService requests = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+	requests.shutdownNow();
+	renderExecutor.destroy();
+    }
+
+    @Test
+    public void rendersOnThePoolAndCountsTheRenders() throws Exception {
+	String result = renderExecutor.render(new Callable<String>() {
+	    public String call() {
+		return "pdf";
+	    }
+	});
+
+	assertThat(result, equalTo("pdf"));
+	assertThat(renderExecutor.getRenderCount(), equalTo(1L));
+    }
+
+    @Test
+    public void rejectsRendersOnceTheQueueIsFull() throws Exception {
+	final CountDownLatch started = new CountDownLatch(1);
+	final CountDownLatch release = new CountDownLatch(1);
+	final Callable<Object> blocking = new Callable<Object>() {
+	    public Object call() throws Exception {
+		started.countDown();
+		release.await();
+		return null;
+	    }
+	};
+	Callable<Object> request = new Callable<Object>() {
+	    public Object call() throws Exception {
+		return renderExecutor.render(blocking);
+	    }
+	};
+	requests.submit(request);
+	started.await(1, TimeUnit.SECONDS);
+	requests.submit(request);
+	while (renderExecutor.getQueueDepth() == 0) {
+	    Thread.sleep(10);
+	}
+
+	try {
+	    renderExecutor.render(blocking);
+	    throw new AssertionError("the render was not rejected");
+	} catch (RejectedExecutionException e) {
+	    // expected
+	} finally {
+	    release.countDown();
+	}
+	assertThat(renderExecutor.getRejectedCount(), equalTo(1L));
+    }
+
+    @Test
+    public void admitsAsManyPdfsAsThreadsAndQueueUntilReleased() {
+	assertThat(renderExecutor.admit(), equalTo(true));
+	assertThat(renderExecutor.admit(), equalTo(true));
+	// admitted PDFs still rendering their template are counted, not only
+	// the queued ones
+	assertThat(renderExecutor.admit(), equalTo(false));
+	assertThat(renderExecutor.getRejectedCount(), equalTo(1L));
+
+	renderExecutor.release();
+	assertThat(renderExecutor.admit(), equalTo(true));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xml.sax.InputSource;
+
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.SimpleBookmark;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class PDFRendererPoolTest {
+
+    private final PDFRendererPool pool = new PDFRendererPool(1);
+
+    @Test
+    public void reusesTheReleasedInstances() throws Exception {
+	DocumentBuilder documentBuilder = pool.acquireDocumentBuilder();
+	pool.releaseDocumentBuilder(documentBuilder);
+	ITextRenderer renderer = pool.acquireRenderer();
+	pool.releaseRenderer(renderer, true);
+
+	assertThat(pool.acquireDocumentBuilder(), sameInstance(documentBuilder));
+	assertThat(pool.acquireRenderer(), sameInstance(renderer));
+	assertThat(pool.getRendererCount(), equalTo(1));
+    }
+
+    @Test
+    public void replacesTheDiscardedRenderers() throws Exception {
+	ITextRenderer renderer = pool.acquireRenderer();
+	pool.releaseRenderer(renderer, false);
+
+	assertThat(pool.getRendererCount(), equalTo(1));
+	assertThat(pool.getIdleRendererCount(), equalTo(1));
+    }
+
+    @Test
+    public void releasedRenderersDropTheirDocument() throws Exception {
+	for (int i = 0; i < 2; i++) {
+	    ITextRenderer renderer = pool.acquireRenderer();
+	    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+	    renderer.setDocument(parse("<html><body>page " + i
+		    + "</body></html>"), null);
+	    renderer.layout();
+	    renderer.createPDF(pdf);
+	    pool.releaseRenderer(renderer, true);
+
+	    assertThat(pdf.size(), greaterThan(0));
+	    assertThat(renderer.getRootBox(), nullValue());
+	    assertThat(renderer.getWriter(), nullValue());
+	}
+	assertThat(pool.getRendererCount(), equalTo(1));
+	assertThat(pool.getIdleRendererCount(), equalTo(1));
+    }
+
+    @Test
+    public void releasedRenderersDropTheOutlineOfTheirPdf() throws Exception {
+	List<?> outline = outlineOf(render("<html><head><bookmarks>"
+		+ "<bookmark name=\"Private\" href=\"#a\"/></bookmarks></head>"
+		+ "<body><p id=\"a\">first</p></body></html>"));
+	assertThat(outline.size(), equalTo(1));
+
+	assertThat(outlineOf(render("<html><body>second</body></html>")),
+		nullValue());
+	assertThat(pool.getRendererCount(), equalTo(1));
+    }
+
+    @Test
+    public void parsesXhtmlEntitiesWithoutFetchingTheDtd() throws Exception {
+	DocumentBuilder documentBuilder = pool.acquireDocumentBuilder();
+	Document doc = documentBuilder.parse(new InputSource(new StringReader(
+		"<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" "
+			+ "\"http://no-such-host.invalid/xhtml1-strict.dtd\">"
+			+ "<html><body>a&nbsp;b</body></html>")));
+	pool.releaseDocumentBuilder(documentBuilder);
+
+	assertThat(doc.getDocumentElement().getTextContent(),
+		equalTo("a\u00a0b"));
+    }
+
+    @Test
+    public void waitsForARendererOnceAllAreInUse() throws Exception {
+	final ITextRenderer renderer = pool.acquireRenderer();
+
+	ExecutorService executor = Executors.newSingleThreadExecutor();
+	try {
+	    Future<ITextRenderer> waiting = executor
+		    .submit(new Callable<ITextRenderer>() {
+			public ITextRenderer call() throws Exception {
+			    return pool.acquireRenderer();
+			}
+		    });
+	    Thread.sleep(50);
+	    pool.releaseRenderer(renderer, true);
+
+	    assertThat(waiting.get(), sameInstance(renderer));
+	    assertThat(pool.getWaitCount(), equalTo(1L));
+	} finally {
+	    executor.shutdown();
+	}
+    }
+
+    private byte[] render(String markup) throws Exception {
+	ITextRenderer renderer = pool.acquireRenderer();
+	ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+	renderer.setDocument(parse(markup), null);
+	renderer.layout();
+	renderer.createPDF(pdf);
+	pool.releaseRenderer(renderer, true);
+	return pdf.toByteArray();
+    }
+
+    private List<?> outlineOf(byte[] pdf) throws Exception {
+	PdfReader reader = new PdfReader(pdf);
+	try {
+	    return SimpleBookmark.getBookmark(reader);
+	} finally {
+	    reader.close();
+	}
+    }
+
+    private Document parse(String markup) throws Exception {
+	DocumentBuilder documentBuilder = pool.acquireDocumentBuilder();
+	try {
+	    return documentBuilder.parse(new InputSource(new StringReader(
+		    markup)));
+	} finally {
+	    pool.releaseDocumentBuilder(documentBuilder);
+	}
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.web.servlet.view.mustache.pdf;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+
+/**
+ * @author Eric D. White <eric@ericwhite.ca>
+ */
+public class ResourceLoaderUserAgentTest {
+
+    private final PDFResourceCache resourceCache = new PDFResourceCache();
+
+    private final ResourceLoaderUserAgent userAgent = new ResourceLoaderUserAgent(
+	    new ITextOutputDevice(26.666666f), new DefaultResourceLoader(),
+	    "WEB-INF/views/", resourceCache);
+
+    @Test
+    public void resolvesRelativeLocationsAgainstTheBaseLocation() {
+	assertThat(userAgent.resolveURI("test-partial.html"),
+		endsWith("WEB-INF/views/test-partial.html"));
+	assertThat(userAgent.resolveURI("no-such-stylesheet.css"), nullValue());
+    }
+
+    @Test
+    public void readsEachResourceOnce() throws Exception {
+	assertThat(userAgent.resolveAndOpenStream("test-partial.html"),
+		notNullValue());
+	assertThat(userAgent.resolveAndOpenStream("test-partial.html"),
+		notNullValue());
+
+	assertThat(resourceCache.getMissCount(), equalTo(1L));
+	assertThat(resourceCache.getHitCount(), equalTo(1L));
+    }
+}